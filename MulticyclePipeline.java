@@ -1,5 +1,10 @@
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class MulticyclePipeline {
 	static Scanner input = new Scanner(System.in);
@@ -11,855 +16,3898 @@ public class MulticyclePipeline {
 		
 		IF, ID, // Instruction fetch and decode, 1 stage long each for all instructions
 		
-		EX, // Default instruction execution, 1 stage long for all integer or branch instructions and floating point (FP) memory instructions
+		EX, // Default instruction execution for all integer or branch instructions and floating point (FP) memory instructions
 		
-		A1, A2, // FP adder and subtracter execution, 2 stages long
+		A(true), // FP adder and subtracter execution
 		
-		M1, M2, M3, M4, M5, M6, M7, M8, M9, M10, // Multiplier execution, 10 stages long
+		M(true), // Multiplier execution
 		
-		D1, D2, D3, D4, D5, D6, D7, D8, D9, D10,
-		D11, D12, D13, D14, D15, D16, D17, D18, D19, D20,
-		D21, D22, D23, D24, D25, D26, D27, D28, D29, D30,
-		D31, D32, D33, D34, D35, D36, D37, D38, D39, D40, // Divider execution, 40 stages long
+		D(true), // Divider execution
 		
-		MEM, MEM2, MEM3, // Memory storage, 3 stages long for L.D instructions (due to causing a miss from L1 cache) and 1 stage long for all other instructions
+		MEM, // Memory storage; L.D instructions stay here longer due to causing a miss from L1 cache, unless the cache is modeled
 		
 		WB, // Write back, 1 stage long for all instructions
 		
-		complete // Stage in which the cycle has finished pipelining; used to end the pipeline do-while loop for each instruction
-	}
-	
-	enum operator {
-		LD, SD, LI, LW, SW, // Memory operations - load FP, store FP, load immediate int, load word (int), store word (int)
+		complete; // Stage in which the cycle has finished pipelining; used to end the pipeline do-while loop for each instruction
 		
-		ADDI, ADD, SUB, // Integer arithmetic - add immediate, add int, subtract int
+		final boolean numbered; // Whether each cycle in this stage is displayed with its number (A1, A2, ...) instead of just the stage name
 		
-		ADD_D, SUB_D, MUL_D, DIV_D, // Floating point arithmetic - add doubleword, subtract doubleword, multiply, divide
+		stage() {
+			this(false);
+		}
 		
-		BEQ, BNE, J // Branch operations - branch if equal, branch if not equal, unconditional jump
+		stage(boolean numbered) {
+			this.numbered = numbered;
+		}
 	}
 	
-	static int[] memory = {45,12,0,92,10,135,254,127,18,4,55,8,2,98,13,5,233,158,167}; // Default memory values in addresses 0-18 given by project instructions
-	
-	// Register arrays
-	static Integer[] R = new Integer[32]; // Integer registers $0 through $31
-	static Float[] FP = new Float[32]; // Floating point registers F0 through F31
+	static final stage[] STAGES = stage.values();
 	
-	static Vector<String> instructions = new Vector<String>(); // The RAW TEXT for each instruction in order; initialized by loadInstructions()
+	// The state of an instruction at a cycle is packed into one int holding its stage and how many cycles it has already spent in that stage,
+	// so that M3 is state(stage.M, 2). The histories of instructions are kept as arrays of these states.
+	static final int COMPLETE = state(stage.complete, 0);
+	static final int NO_STAGE = -1; // Used in place of a state when the previous instruction has no stage at some cycle
 	
-	static Vector<String> ops = new Vector<String>(); // The OPERANDS for each instruction in order; initialized by sortInstructions()
-	
-	static Vector<operator> opTypes = new Vector<operator>(); // The OPERATORS for each instruction in order; initialized by sortInstructions()
-	
-	static Vector<stage> currInstruction = new Vector<stage>(); // The stages at each cycle for the instruction that is CURRENTLY being pipelined
+	static int state(stage s, int step) {
+		return step << 4 | s.ordinal();
+	}
 	
-	static Vector<stage> lastInstruction = new Vector<stage>(); // The full pipeline of the PREVIOUS instruction; remians empty when pipelining the first one
+	static stage stageOf(int state) {
+		return STAGES[state & 15];
+	}
 	
-	static boolean stall = false; // Determines whether a portion of the instructions are pipelining
+	static int stepOf(int state) {
+		return state >>> 4;
+	}
 	
-	public static void main(String[] args) {
-		loadInstructions(); // Load and store raw text in instructions Vector
-		sortInstructions(); // Sort each String in instructions Vector with delimiters and store them in ops Vector
+	// Config
+	// Describes each functional unit (EX, A, M, D and MEM) by its latency in cycles, whether it is pipelined and how many copies of it
+	// there are, indexed by stage ordinal. A unit that is not pipelined accepts a new instruction only once the previous one has left it;
+	// an instruction issues to any copy of its unit that can accept it.
+	// The defaults below are the original project values; load() overrides them from a properties file.
+	static final class Config {
+		static final stage[] UNITS = {stage.EX, stage.A, stage.M, stage.D, stage.MEM};
 		
-		if (DEBUG) {
-			for (int i = 0; i < ops.size(); i++) {
-				System.out.println(opTypes.get(i)+"; "+ops.get(i));
-			}
-			System.out.println();
+		final int[] latency = new int[STAGES.length];
+		final boolean[] pipelined = new boolean[STAGES.length];
+		final int[] count = new int[STAGES.length]; // Copies of each unit; IF and ID have one per instruction of the width, WB one per write port
+		int width = 1; // The most instructions fetched, decoded and issued each cycle
+		int missLatency = 3; // MEM cycles of an L.D instruction, which always misses the L1 cache, or of any L1 miss if the cache is modeled
+		boolean fastForward = true; // Whether loops that reach a steady state skip cycle-by-cycle simulation of their remaining iterations
+		
+		// Forwarding paths that let a result reach a dependent instruction before it is written back
+		boolean forwardEX = true; // EX->EX: an integer result from the end of EX into the next EX
+		boolean forwardMEM = true; // MEM->EX: any result, including a loaded value, from the end of MEM into the next unit
+		boolean forwardFP = true; // FP->FP: an FP result from the end of its unit into the next FP unit
+		
+		// The L1 data cache. If it is modeled, every load and store takes the MEM latency on a hit and missLatency on a miss, instead of
+		// every L.D missing and every other access hitting
+		boolean cache = false;
+		int cacheSets = 64;
+		int cacheWays = 2;
+		int cacheLineWords = 4; // Words per line
+		boolean cacheLRU = true; // Whether the least recently used line of a set is replaced, rather than the first one filled (FIFO)
+		boolean cacheWriteBack = true; // Whether stores only write the cache (write-back, write-allocate) or also memory (write-through)
+		int cacheWriteBackLatency = 2; // Extra MEM cycles of a miss that evicts a dirty line
+		
+		// Branch prediction. With the "perfect" predictor, the instruction after a branch is always fetched from the correct path
+		String predictor = "perfect"; // perfect, not-taken, 1-bit, 2-bit or gshare
+		int predictorEntries = 1024; // Entries of the 1-bit, 2-bit or gshare table
+		int historyBits = 8; // Global history bits of gshare
+		int btbEntries = 64; // Entries of the direct-mapped branch target buffer
+		int branchPenalty = 1; // Cycles from the end of a mispredicted branch's EX until the correct path is fetched
+		
+		// The out-of-order engine compared against the pipeline by --tomasulo
+		int robSize = 32; // Reorder buffer entries
+		int stations = 4; // Reservation stations of each functional unit
+		int buses = 1; // Common data buses, each broadcasting one result per cycle
+		
+		Config() {
+			setUnit(stage.EX, 1, true);
+			setUnit(stage.A, 2, false);
+			setUnit(stage.M, 10, false);
+			setUnit(stage.D, 40, false);
+			setUnit(stage.MEM, 1, false);
+			Arrays.fill(count, 1);
 		}
 		
-		// First instruction is separate because it starts at IF instead of idle
-		stage currStage = stage.IF;
-		stage lastInstStage;
-		System.out.printf("%-25s", instructions.get(0));
-		int currCycle = 0;
-		currInstruction = new Vector<stage>();
-		do {
-			
-			if (currCycle >= lastInstruction.size()) {
-				lastInstStage = stage.complete;
-			} else {
-				lastInstStage = lastInstruction.get(currCycle);
-			}
-			displayStage(currStage);
-			currInstruction.add(currStage);
-			if (DEBUG)
-				System.out.print("Cycle "+currCycle+" - current stage: "+currStage+"; last stage at this cycle: "+lastInstStage);
-			currStage = updateStage(currStage, lastInstStage, opTypes.get(0), currCycle, 0);
-			if (DEBUG)
-				System.out.println("; updated cycle: "+currStage+"; stall="+stall);
-			currCycle++;
-			
-		} while (currStage != stage.complete);
-		System.out.println();
+		void setUnit(stage unit, int cycles, boolean isPipelined) {
+			latency[unit.ordinal()] = cycles;
+			pipelined[unit.ordinal()] = isPipelined;
+		}
 		
-		lastInstruction = new Vector<stage>();
-		for (int j = 0; j < currInstruction.size(); j++) {
-			lastInstruction.add(currInstruction.get(j));
+		// setWidth()
+		// Given the number of instructions to fetch, decode and issue each cycle, gives IF and ID that many copies.
+		void setWidth(int instructions) {
+			width = instructions;
+			count[stage.IF.ordinal()] = instructions;
+			count[stage.ID.ordinal()] = instructions;
 		}
 		
-		if (DEBUG) {
-			System.out.print("lastInstruction: ");
-			for (int k = 0; k < lastInstruction.size(); k++) {
-				System.out.printf("%-10s", lastInstruction.get(k).toString());
+		// setForwarding()
+		// Given a comma-separated list of forwarding paths ("EX-EX", "MEM-EX", "FP-FP"), or "none", enables exactly those paths.
+		void setForwarding(String paths, String filename) {
+			forwardEX = forwardMEM = forwardFP = false;
+			for (String path : paths.split(",")) {
+				switch (path.trim().toUpperCase(Locale.ROOT)) {
+				case "EX-EX":
+					forwardEX = true;
+					break;
+				case "MEM-EX":
+					forwardMEM = true;
+					break;
+				case "FP-FP":
+					forwardFP = true;
+					break;
+				case "NONE":
+				case "":
+					break;
+				default:
+					System.out.println("Invalid forwarding path \""+path.trim()+"\" in "+filename+"; use EX-EX, MEM-EX, FP-FP or none.");
+					System.exit(0);
+				}
 			}
-			System.out.println();
-			System.out.println("Next i value: 1\n");
 		}
 		
-		int i = 1;
-		while (i < instructions.size()) {
-			System.out.printf("%-25s", instructions.get(i));
-			currStage = stage.idle;
-			currCycle = 0;
-			currInstruction = new Vector<stage>();
-			do {
-				
-				if (currCycle >= lastInstruction.size())
-					lastInstStage = stage.complete;
-				else
-					lastInstStage = lastInstruction.get(currCycle);
-				
-				// Just using different displays for debugging vs. running the program
-				if (DEBUG) {
-					System.out.print("Cycle "+currCycle+" - current stage: "+currStage+"; last stage at this cycle: "+lastInstStage);
-				} else {
-					displayStage(currStage);
+		// load()
+		// Given the name of a properties file, returns the default configuration with its entries applied, or the defaults unchanged if
+		// the file does not exist.
+		static Config load(String filename) {
+			return of(read(filename), filename);
+		}
+		
+		// read()
+		// Returns the entries of a properties file, or none if the file does not exist.
+		static Properties read(String filename) {
+			Properties values = new Properties();
+			File file = new File(filename);
+			if (!file.exists())
+				return values;
+			try (FileReader reader = new FileReader(file)) {
+				values.load(reader);
+			} catch (IOException e) {
+				System.out.println("Could not read "+filename+". Try running the simulator again.");
+				System.exit(0);
+			}
+			return values;
+		}
+		
+		// of()
+		// Returns the default configuration with every "<unit>.latency", "<unit>.pipelined", "<unit>.count", "width", "WB.count",
+		// "MEM.missLatency", "fastForward", "forwarding", "cache.*", "branch.*" and "tomasulo.*" entry of the given properties applied,
+		// naming the given file when a value is invalid.
+		static Config of(Properties values, String filename) {
+			Config config = new Config();
+			for (stage unit : UNITS) {
+				int cycles = config.latency[unit.ordinal()];
+				boolean isPipelined = config.pipelined[unit.ordinal()];
+				cycles = positive(values, filename, unit+".latency", cycles);
+				isPipelined = bool(values, filename, unit+".pipelined", isPipelined);
+				config.setUnit(unit, cycles, isPipelined);
+				config.count[unit.ordinal()] = positive(values, filename, unit+".count", config.count[unit.ordinal()]);
+				if (config.count[unit.ordinal()] > MAX_COPIES) {
+					System.out.println("Invalid value "+config.count[unit.ordinal()]+" for "+unit+".count in "+filename+"; at most "+MAX_COPIES+" copies of a unit are supported.");
+					System.exit(0);
 				}
-				
-				currInstruction.add(currStage);
-				
-				currStage = updateStage(currStage, lastInstStage, opTypes.get(i), currCycle, i);
-				if (DEBUG)
-					System.out.println("; updated cycle: "+currStage+"; stall="+stall);
-				currCycle++;
-					
-			} while (currStage != stage.complete);
-			System.out.println();
-			
-			// lastInstruction becomes a copy of currInstruction after each instruction has been pipelined
-			lastInstruction = new Vector<stage>();
-			for (int j = 0; j < currInstruction.size(); j++) {
-				lastInstruction.add(currInstruction.get(j));
 			}
-			
-			if (taken(opTypes.get(i), ops.get(i))) {
-				i = branchIndex(i);
-			} else {
-				i++;
+			config.setWidth(positive(values, filename, "width", config.width));
+			config.count[stage.WB.ordinal()] = positive(values, filename, "WB.count", config.count[stage.WB.ordinal()]);
+			if (config.width > MAX_COPIES || config.count[stage.WB.ordinal()] > MAX_COPIES) {
+				System.out.println("Invalid width or WB.count in "+filename+"; at most "+MAX_COPIES+" instructions per cycle are supported.");
+				System.exit(0);
 			}
+			config.missLatency = positive(values, filename, "MEM.missLatency", config.missLatency);
+			config.fastForward = bool(values, filename, "fastForward", config.fastForward);
+			String forwarding = values.getProperty("forwarding");
+			if (forwarding != null)
+				config.setForwarding(forwarding, filename);
+			
+			config.cache = bool(values, filename, "cache.enabled", config.cache);
+			config.cacheSets = positive(values, filename, "cache.sets", config.cacheSets);
+			config.cacheWays = positive(values, filename, "cache.ways", config.cacheWays);
+			config.cacheLineWords = positive(values, filename, "cache.lineWords", config.cacheLineWords);
+			config.cacheWriteBackLatency = positive(values, filename, "cache.writeBackLatency", config.cacheWriteBackLatency);
+			String replacement = values.getProperty("cache.replacement", config.cacheLRU ? "LRU" : "FIFO").trim();
+			String writePolicy = values.getProperty("cache.writePolicy", config.cacheWriteBack ? "write-back" : "write-through").trim();
+			if (!replacement.equalsIgnoreCase("LRU") && !replacement.equalsIgnoreCase("FIFO")) {
+				System.out.println("Invalid value \""+replacement+"\" for cache.replacement in "+filename+"; use LRU or FIFO.");
+				System.exit(0);
+			}
+			if (!writePolicy.equalsIgnoreCase("write-back") && !writePolicy.equalsIgnoreCase("write-through")) {
+				System.out.println("Invalid value \""+writePolicy+"\" for cache.writePolicy in "+filename+"; use write-back or write-through.");
+				System.exit(0);
+			}
+			config.cacheLRU = replacement.equalsIgnoreCase("LRU");
+			config.cacheWriteBack = writePolicy.equalsIgnoreCase("write-back");
 			
-			// Verify that lastInstruction has updated properly when debugging
-			if (DEBUG) {
-				System.out.print("lastInstruction: ");
-				for (int k = 0; k < lastInstruction.size(); k++) {
-					System.out.printf("%-10s", lastInstruction.get(k).toString());
-				}
-				System.out.println();
-				System.out.println("Next i value: "+(i+1)+"\n");
+			config.predictor = values.getProperty("branch.predictor", config.predictor).trim().toLowerCase(Locale.ROOT);
+			if (!Arrays.asList(Predictor.KINDS).contains(config.predictor)) {
+				System.out.println("Invalid value \""+config.predictor+"\" for branch.predictor in "+filename+"; use "+String.join(", ", Predictor.KINDS)+".");
+				System.exit(0);
 			}
+			config.predictorEntries = positive(values, filename, "branch.entries", config.predictorEntries);
+			config.historyBits = positive(values, filename, "branch.historyBits", config.historyBits);
+			config.btbEntries = positive(values, filename, "branch.btbEntries", config.btbEntries);
+			config.branchPenalty = positive(values, filename, "branch.penalty", config.branchPenalty);
+			if (config.historyBits > 30) {
+				System.out.println("Invalid value "+config.historyBits+" for branch.historyBits in "+filename+"; at most 30 bits are supported.");
+				System.exit(0);
+			}
+			
+			config.robSize = positive(values, filename, "tomasulo.robSize", config.robSize);
+			config.stations = positive(values, filename, "tomasulo.stations", config.stations);
+			config.buses = positive(values, filename, "tomasulo.buses", config.buses);
+			return config;
 		}
 		
-		System.out.println();
-		printResults();
-	}
-	
-	// loadInstructions()
-	// Given user input for the name of a text file, initializes the instructions vector by loading each line of that text file using I/O.
-	static void loadInstructions() {
-		// User inputs the name of the file with instructions
-		System.out.print("Enter the name of your text file (INCLUDE THE \".txt\" SUFFIX) ");
-		String filename = input.nextLine();
-		Scanner infile = null;
+		// describe()
+		// Returns every setting that affects the timing of the pipeline, so a checkpoint can only be restored under the same ones.
+		String describe() {
+			return Arrays.toString(latency)+Arrays.toString(pipelined)+Arrays.toString(count)+" width="+width+" missLatency="+missLatency
+				+" forwarding="+forwardEX+","+forwardMEM+","+forwardFP+" cache="+cache+","+cacheSets+","+cacheWays+","+cacheLineWords+","+cacheLRU
+				+","+cacheWriteBack+","+cacheWriteBackLatency+" predictor="+predictor+","+predictorEntries+","+historyBits+","+btbEntries+","+branchPenalty;
+		}
 		
-		// Input validation, close the program if not valid
-		try { infile = new Scanner(new FileReader(filename)); }
-		catch (FileNotFoundException e) {
-			System.out.println("File not found. Try running the simulator again.");
-			System.exit(0); // Exit the program
+		// positive()
+		// Reads a latency or size from the given properties, closing the program if it is not a whole number of at least 1.
+		static int positive(Properties values, String filename, String key, int fallback) {
+			String value = values.getProperty(key);
+			if (value == null)
+				return fallback;
+			try {
+				int cycles = Integer.parseInt(value.trim());
+				if (cycles >= 1)
+					return cycles;
+			} catch (NumberFormatException e) {
+			}
+			System.out.println("Invalid value \""+value+"\" for "+key+" in "+filename+"; it must be a whole number of at least 1.");
+			System.exit(0);
+			return fallback;
 		}
 		
-		// Load each line in the file and convert it to an MIPS instruction
-		while (infile.hasNextLine()) {
-			instructions.add(infile.nextLine());
+		// bool()
+		// Reads a switch from the given properties, closing the program if it is not true or false.
+		static boolean bool(Properties values, String filename, String key, boolean fallback) {
+			String value = values.getProperty(key);
+			if (value == null)
+				return fallback;
+			if (value.trim().equalsIgnoreCase("true") || value.trim().equalsIgnoreCase("false"))
+				return Boolean.parseBoolean(value.trim());
+			System.out.println("Invalid value \""+value+"\" for "+key+" in "+filename+"; it must be true or false.");
+			System.exit(0);
+			return fallback;
+		}
+		
+		// memLatency()
+		// Given an operator, returns the number of cycles it spends in MEM when the cache is not modeled.
+		int memLatency(operator o) {
+			return o == operator.LD ? missLatency : latency[stage.MEM.ordinal()];
 		}
-		System.out.println("Instructions loaded successfully.\n");
 	}
 	
+	static final String CONFIG_FILE = "pipeline.properties"; // Optional file in the working directory overriding the default Config
+	static final int SWEEP_LIMIT = 100000; // The most combinations of values runSweep() simulates from one grid file
 	
-	// sortInstructions()
-	// Initializes the ops and opTypes vectors based on the layout of each loaded MIPS instruction.
-	static void sortInstructions() {
-		for (int i = 0; i < instructions.size(); i++) {
-			String line = instructions.get(i);
-			if (line.startsWith("Loop: ")) {
-				line = line.substring(6);
-			}
-			StringTokenizer delimiter = new StringTokenizer(line);
-			// Load instruction w/ register
-			if (line.startsWith("L.D ") || line.startsWith("LW ")) {
-				String op = delimiter.nextToken(" ");
-				String dest = delimiter.nextToken(", ");
-				String s = delimiter.nextToken("(").substring(2);
-				String t = delimiter.nextToken(")").substring(1);
-				ops.add(dest+"|"+s+"|"+t);
-				
-				if (line.startsWith("L.D "))
-					opTypes.add(operator.LD);
-				else if (line.startsWith("LW "))
-					opTypes.add(operator.LW);
-			}
-			// Store instruction
-			if (line.startsWith("S.D ") || line.startsWith("SW ")) {
-				String op = delimiter.nextToken(" ");
-				String s = delimiter.nextToken(", ");
-				String offset = delimiter.nextToken("(").substring(2);
-				String adder = delimiter.nextToken(")").substring(1);
-				ops.add(s+"|"+offset+"|"+adder);
-				
-				if (line.startsWith("S.D "))
-					opTypes.add(operator.SD);
-				else if (line.startsWith("SW "))
-					opTypes.add(operator.SW);
-			}
-			// Load instruction w/ immediate
-			if (line.startsWith("LI")) {
-				String op = delimiter.nextToken(" ");
-				String dest = delimiter.nextToken(", ");
-				int imm = Integer.parseInt(delimiter.nextToken());
-				ops.add(dest+"|"+imm);
-				opTypes.add(operator.LI);
-			}
-			// ALU instructions
-			if (line.startsWith("ADD ") || line.startsWith("ADD.D ") || line.startsWith("SUB ") || line.startsWith("SUB.D ")
-					|| line.startsWith("MUL.D ") || line.startsWith("DIV.D ") || line.startsWith("ADDI ")) {
-				String op = delimiter.nextToken(" ");
-				String dest = delimiter.nextToken(", ");
-				String s = delimiter.nextToken(", ");
-				String t = delimiter.nextToken();
-				ops.add(dest+"|"+s+"|"+t);
-				
-				if (line.startsWith("ADD "))
-					opTypes.add(operator.ADD);
-				else if (line.startsWith("ADD.D "))
-					opTypes.add(operator.ADD_D);
-				else if (line.startsWith("SUB "))
-					opTypes.add(operator.SUB);
-				else if (line.startsWith("SUB.D "))
-					opTypes.add(operator.SUB_D);
-				else if (line.startsWith("MUL.D "))
-					opTypes.add(operator.MUL_D);
-				else if (line.startsWith("DIV.D "))
-					opTypes.add(operator.DIV_D);
-				else opTypes.add(operator.ADDI);
-			}
-			
-			if (line.startsWith("BEQ ") || line.startsWith("BNE ")) {
-				String op = delimiter.nextToken(" ");
-				String s = delimiter.nextToken(", ");
-				String t = delimiter.nextToken(", ");
-				String offset = delimiter.nextToken();
-				ops.add(s+"|"+t+"|"+offset);
-				
-				if (line.startsWith("BEQ "))
-					opTypes.add(operator.BEQ);
-				else if (line.startsWith("BNE "))
-					opTypes.add(operator.BNE);
-			}
-			// Unconditional branch
-			if (line.startsWith("J")) {
-				String op = delimiter.nextToken(" ");
-				ops.add(delimiter.nextToken());
-				opTypes.add(operator.J);
-			}
-		}
-	}
-	
-	// displayStage()
-	// Given the stage of an instruction at the current cycle, displays a certain string based on the status of a pipeline.
-	// Displays nothing if it is idle, "stall" if the current cycle is found to be stalling, or the name of the current stage otherwise.
-	static void displayStage(stage s) {
-		if (s == stage.idle || s == stage.complete)
-			System.out.printf("%-10s", "");
-		else if (stall)
-			System.out.printf("%-10s", "stall");
-		else if (s == stage.MEM || s == stage.MEM2 || s == stage.MEM3) // MEM2 and MEM3 are simply extra parts of the MEM stage for L.D instructions
-			System.out.printf("%-10s", "MEM");
-		else
-			System.out.printf("%-10s", s.toString());
-	}
-	
-	// updateStage()
-	// Given the current instruction's stage; location and operator; the current cycle number; and the LAST instruction's stage at that operator,
-	// checks for a stall and returns the current instruction's NEXT stage in the pipeline.
-	
-	static stage updateStage(stage s, stage sLastInst, operator o, int currCycle, int i) {
-		stage nextStageLastInst = null;
-		if (i > 0) {
-			if (currCycle < lastInstruction.size()-1) {
-				nextStageLastInst = lastInstruction.get(currCycle+1);
-			}
-		}
-		stage newStage = null;
-		switch(s) {
-		case idle: // All instructions remain unused until IF is available
-			if (sLastInst == stage.IF && nextStageLastInst != sLastInst)
-				newStage = stage.IF;
-			else
-				newStage = stage.idle;
-			break;
-		
-		case IF: // Instruction fetching stalls until ID is available
-			if (nextStageLastInst == sLastInst) {
-				stall = true;
-				newStage = stage.IF;
-			} else {
-				stall = false;
-				newStage = stage.ID;
-			}
-			break;
-			
-		case ID: // Instruction decoding stalls until the correct TYPE of execution is available (Integer, Mult, Add, or Div)
-			if (nextStageLastInst == sLastInst) {
-				stall = true;
-				newStage = stage.ID;
-			} else {
-				stall = false;
-				if (o == operator.ADD_D || o == operator.SUB_D) {
-					if (sLastInst == stage.A1) { // Pipeline cannot execute 2 ADD_D instructions at once
-						stall = true;
-						newStage = stage.ID;
-					} else
-						newStage = stage.A1;
-				} else if (o == operator.MUL_D) {
-					if (sLastInst.ordinal() >= stage.M1.ordinal() && sLastInst.ordinal() < stage.M10.ordinal()) { // Pipeline cannot execute 2 MUL_D instructions at once
-						stall = true;
-						newStage = stage.ID;
-					} else
-						newStage = stage.M1;
-				} else if (o == operator.DIV_D) {
-					if (sLastInst.ordinal() >= stage.D1.ordinal() && sLastInst.ordinal() < stage.D40.ordinal()) { // Pipeline cannot execute 2 DIV_D instructions at once
-						stall = true;
-						newStage = stage.ID;
-					} else
-						newStage = stage.M1;
-				} else {
-					newStage = stage.EX;
-				}
-			}
-			break;
-			
-		case EX: // For load/store, branch and int arithmetic operations, execution stalls until MEM is available
-			if (o == operator.BEQ || o == operator.BNE || o == operator.J) {
-				newStage = stage.complete;
-			} else if ((sLastInst.ordinal() < stage.MEM.ordinal() && sLastInst.ordinal() < stage.MEM.ordinal()) || nextStageLastInst == stage.MEM || nextStageLastInst == sLastInst
-				|| (sLastInst == stage.MEM && nextStageLastInst == stage.MEM2) || (sLastInst == stage.MEM2 && nextStageLastInst == stage.MEM3)) {
-				
-				stall = true;
-				newStage = stage.EX;
-				
-			} else {
-				stall = false;
-				newStage = stage.MEM;
-			}
-			break;
+	enum operator {
+		LD, SD, LI, LW, SW, // Memory operations - load FP, store FP, load immediate int, load word (int), store word (int)
 		
-		// Memory access does NOT stall under any circumstances
-			
-		case MEM: // Move to MEM2 for L.D operations, access memory and move to WB for all other operations
-			stall = false;
-			if (o == operator.LD)
-				newStage = stage.MEM2;
-			else {
-				storeMem(o, ops.get(i));
-				newStage = stage.WB;
-			}
-			break;
+		ADDI, ADD, SUB, // Integer arithmetic - add immediate, add int, subtract int
 		
-		case MEM2: // L1 cache miss, move to MEM3
-			newStage = stage.MEM3;
-			break;
-			
-		case MEM3: // After an L1 cache miss, access memory and move to WB
-			storeMem(operator.LD, ops.get(i));
-			newStage = stage.WB;
-			break;
-			
-		// For all FP arithmetic operations, execution stalls on the LAST cycle until MEM is available
+		ADD_D(stage.A), SUB_D(stage.A), MUL_D(stage.M), DIV_D(stage.D), // Floating point arithmetic - add doubleword, subtract doubleword, multiply, divide
 		
-		case A1:
-			newStage = stage.A2;
-			break;
+		BEQ, BNE, J; // Branch operations - branch if equal, branch if not equal, unconditional jump
 		
-		case A2:
-			if ((sLastInst.ordinal() < stage.MEM.ordinal() && sLastInst.ordinal() < stage.MEM.ordinal()) || nextStageLastInst == stage.MEM || nextStageLastInst == sLastInst
-			|| (sLastInst == stage.MEM && nextStageLastInst == stage.MEM2) || (sLastInst == stage.MEM2 && nextStageLastInst == stage.MEM3)) {
-				
-				stall = true;
-				newStage = stage.A2;
-			
-			} else {
-				stall = false;
-				newStage = stage.MEM;
-			}
-			break;
+		final stage unit; // The functional unit this operator executes in after ID
 		
-		case M1:
-			newStage = stage.M2;
-			break;
-			
-		case M2:
-			newStage = stage.M3;
-			break;
-			
-		case M3:
-			newStage = stage.M4;
-			break;
-			
-		case M4:
-			newStage = stage.M5;
-			break;
-			
-		case M5:
-			newStage = stage.M6;
-			break;
-			
-		case M6:
-			newStage = stage.M7;
-			break;
-			
-		case M7:
-			newStage = stage.M8;
-			break;
-			
-		case M8:
-			newStage = stage.M9;
-			break;
-			
-		case M9:
-			newStage = stage.M10;
-			break;
-			
-		case M10:
-			if ((sLastInst.ordinal() < stage.MEM.ordinal() && sLastInst.ordinal() < stage.MEM.ordinal()) || nextStageLastInst == stage.MEM || nextStageLastInst == sLastInst
-			|| (sLastInst == stage.MEM && nextStageLastInst == stage.MEM2) || (sLastInst == stage.MEM2 && nextStageLastInst == stage.MEM3)) {
-				
-				stall = true;
-				newStage = stage.M10;
-				
-			} else {
-				stall = false;
-				newStage = stage.MEM;
-			}
-			break;
-			
-		case D1:
-			newStage = stage.D2;
-			break;
-			
-		case D2:
-			newStage = stage.D3;
-			break;
-			
-		case D3:
-			newStage = stage.D4;
-			break;
-			
-		case D4:
-			newStage = stage.D5;
-			break;
-			
-		case D5:
-			newStage = stage.D6;
-			break;
-			
-		case D6:
-			newStage = stage.D7;
-			break;
-			
-		case D7:
-			newStage = stage.D8;
-			break;
-			
-		case D8:
-			newStage = stage.D9;
-			break;
-			
-		case D9:
-			newStage = stage.D10;
-			break;
-			
-		case D10:
-			newStage = stage.D11;
-			break;
-			
-		case D11:
-			newStage = stage.D12;
-			break;
-			
-		case D12:
-			newStage = stage.D13;
-			break;
-			
-		case D13:
-			newStage = stage.D14;
-			break;
-			
-		case D14:
-			newStage = stage.D15;
-			break;
-			
-		case D15:
-			newStage = stage.D16;
-			break;
-			
-		case D16:
-			newStage = stage.D17;
-			break;
-			
-		case D17:
-			newStage = stage.D18;
-			break;
-			
-		case D18:
-			newStage = stage.D19;
-			break;
-			
-		case D19:
-			newStage = stage.D20;
-			break;
-			
-		case D20:
-			newStage = stage.D21;
-			break;
-			
-		case D21:
-			newStage = stage.D22;
-			break;
-			
-		case D22:
-			newStage = stage.D23;
-			break;
-			
-		case D23:
-			newStage = stage.D24;
-			break;
-			
-		case D24:
-			newStage = stage.D25;
-			break;
-			
-		case D25:
-			newStage = stage.D26;
-			break;
-			
-		case D26:
-			newStage = stage.D27;
-			break;
-			
-		case D27:
-			newStage = stage.D28;
-			break;
-			
-		case D28:
-			newStage = stage.D29;
-			break;
-			
-		case D29:
-			newStage = stage.D30;
-			break;
-			
-		case D30:
-			newStage = stage.D31;
-			break;
-			
-		case D31:
-			newStage = stage.D32;
-			break;
-			
-		case D32:
-			newStage = stage.D33;
-			break;
-			
-		case D33:
-			newStage = stage.D34;
-			break;
-			
-		case D34:
-			newStage = stage.D35;
-			break;
-			
-		case D35:
-			newStage = stage.D36;
-			break;
-			
-		case D36:
-			newStage = stage.D37;
-			break;
-			
-		case D37:
-			newStage = stage.D38;
-			break;
-			
-		case D38:
-			newStage = stage.D39;
-			break;
-			
-		case D39:
-			newStage = stage.D40;
-			break;
-			
-		case D40:
-			if ((sLastInst.ordinal() < stage.MEM.ordinal() && sLastInst.ordinal() < stage.MEM.ordinal()) || nextStageLastInst == stage.MEM || nextStageLastInst == sLastInst
-			|| (sLastInst == stage.MEM && nextStageLastInst == stage.MEM2) || (sLastInst == stage.MEM2 && nextStageLastInst == stage.MEM3)) {
-				
-				stall = true;
-				newStage = stage.D40;
-				
-			} else {
-				stall = false;
-				newStage = stage.MEM;
-			}
-			break;
-			
-		default: // Writing back stops all stalling and completes the pipeline
-			stall = false;
-			newStage = stage.complete;
-			break;
+		operator() {
+			this(stage.EX);
+		}
+		
+		operator(stage unit) {
+			this.unit = unit;
+		}
+		
+		boolean isBranch() {
+			return this == BEQ || this == BNE || this == J;
+		}
+		
+		boolean isMemory() {
+			return this == LD || this == SD || this == LW || this == SW;
+		}
+		
+		boolean isStore() {
+			return this == SD || this == SW;
 		}
-		return newStage;
 	}
 	
-	// storeMem()
-	// Given the operator and operands of the current instruction, uses the operands to store a value in the destination.
+	// Instruction
+	// A single MIPS instruction decoded once by sortInstructions(), so that storeMem() and taken() never re-parse any text while pipelining.
+	// Register operands hold only their index (F4 -> 4, $4 -> 4).
+	static final class Instruction {
+		final operator op;
+		final int d; // Destination register; the stored register for S.D/SW and the first compared register for BEQ/BNE
+		final int s; // First source register; the second compared register for BEQ/BNE
+		final int t; // Second source register, or the address of a load/store (a register if addrReg is true, a raw memory address otherwise)
+		final int imm; // Immediate value for LI/ADDI, or the offset of a load/store
+		final boolean addrReg; // Whether t names a register ($t) instead of a raw memory address
+		final int target; // Index of the instruction a taken BEQ/BNE/J continues at; resolved once all instructions are sorted
+		
+		Instruction(operator op, int d, int s, int t, int imm, boolean addrReg) {
+			this(op, d, s, t, imm, addrReg, -1);
+		}
+		
+		Instruction(operator op, int d, int s, int t, int imm, boolean addrReg, int target) {
+			this.op = op;
+			this.d = d;
+			this.s = s;
+			this.t = t;
+			this.imm = imm;
+			this.addrReg = addrReg;
+			this.target = target;
+		}
+		
+		// withTarget()
+		// Returns this instruction continuing at the given index when it is a taken branch.
+		Instruction withTarget(int index) {
+			return new Instruction(op, d, s, t, imm, addrReg, index);
+		}
+		
+		public String toString() {
+			return op+" d="+d+" s="+s+" t="+t+" imm="+imm+(addrReg ? " (reg addr)" : "")+(target >= 0 ? " -> "+target : "");
+		}
+	}
 	
-	static void storeMem(operator o, String operands) {
-		int d;
-		Integer Is;
-		Integer It;
-		Float Fs;
-		Float Ft;
-		String addr;
+	// Parser
+	// Decodes one line at a time in a single pass: any labels, then the mnemonic, which picks the operand layout through a switch,
+	// then each operand in order. Whitespace is allowed anywhere between tokens. A line that cannot be decoded adds one message naming
+	// its line number to errors, instead of throwing, so every bad line of a file can be reported at once.
+	static final class Parser {
+		final Map<String, Integer> labels; // The index of the instruction each label is defined at
+		final List<String> errors = new ArrayList<String>();
+		String operand; // The label or number the last decoded branch continues at
 		
-		StringTokenizer valGetter = new StringTokenizer(operands, "|");
-		Integer imm; // Immediate integer containing a memory address for LI and ADDI
+		String line; // The line being decoded, and the position of the next character to read in it
+		int pos;
 		
-		switch (o) {
+		Parser(Map<String, Integer> labels) {
+			this.labels = labels;
+		}
 		
-		case LD:
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
+		// Syntax
+		// Thrown within parse() when a line does not match the layout of its mnemonic. Carries no stack trace.
+		static final class Syntax extends Exception {
+			private static final long serialVersionUID = 1L;
 			
-			Is = Integer.parseInt(valGetter.nextToken());
-			
-			addr = valGetter.nextToken();
-			
-			if (addr.startsWith("$")) { // If addr is a register, Fd = offset + $addr
-				It = memory[R[Integer.parseInt(addr.substring(1))]];
-				FP[d] = (float)Is + (float)It;
-			} else { // If addr is a memory address, Fd = memory[offset + addr]
-				It = Integer.parseInt(addr);
-				FP[d] = (float)memory[Is+It];
+			Syntax(String message) {
+				super(message, null, false, false);
 			}
-			
-			if (DEBUG) {
-				System.out.print("\nMEM3 called: d = "+d+"; offset = "+Is+"; addr = "+It+"; value stored = "+FP[d]);
+		}
+		
+		// parse()
+		// Given a raw line, its line number and the index the next instruction will have, enters every label the line starts with
+		// (as "name:") at that index and returns the instruction it decodes to, without its branch target. Returns null for a line with
+		// only labels or whitespace, or for a line with an error, which is added to errors.
+		Instruction parse(String raw, int lineNumber, int index) {
+			line = raw;
+			pos = 0;
+			operand = null;
+			try {
+				String mnemonic;
+				while (true) {
+					skipSpace();
+					if (pos == line.length())
+						return null;
+					int start = pos;
+					String word = word();
+					if (word.isEmpty())
+						throw new Syntax("Expected an instruction, found \""+rest(start)+"\"");
+					skipSpace();
+					if (pos < line.length() && line.charAt(pos) == ':') {
+						pos++;
+						if (!Character.isLetter(word.charAt(0)) && word.charAt(0) != '_')
+							throw new Syntax("Label \""+word+"\" must start with a letter or underscore");
+						if (labels.putIfAbsent(word, index) != null)
+							throw new Syntax("Label \""+word+"\" is already defined");
+						continue;
+					}
+					mnemonic = word;
+					break;
+				}
+				
+				Instruction inst;
+				int d, s, t;
+				switch (mnemonic) {
+				case "LI":
+					d = register('$');
+					comma();
+					inst = new Instruction(operator.LI, d, 0, 0, integer(), false);
+					break;
+				case "ADDI":
+					d = register('$');
+					comma();
+					s = register('$');
+					comma();
+					inst = new Instruction(operator.ADDI, d, s, 0, integer(), false);
+					break;
+				case "ADD":
+				case "SUB":
+					d = register('$');
+					comma();
+					s = register('$');
+					comma();
+					inst = new Instruction(mnemonic.equals("ADD") ? operator.ADD : operator.SUB, d, s, register('$'), 0, false);
+					break;
+				case "ADD.D":
+				case "SUB.D":
+				case "MUL.D":
+				case "DIV.D":
+					d = register('F');
+					comma();
+					s = register('F');
+					comma();
+					t = register('F');
+					operator o = mnemonic.equals("ADD.D") ? operator.ADD_D : mnemonic.equals("SUB.D") ? operator.SUB_D
+						: mnemonic.equals("MUL.D") ? operator.MUL_D : operator.DIV_D;
+					inst = new Instruction(o, d, s, t, 0, false);
+					break;
+				case "LW":
+				case "SW":
+				case "L.D":
+				case "S.D":
+					// Loads and stores take a register, then "offset(address)" where the address is a register ($n) or a raw memory address
+					boolean fp = mnemonic.endsWith(".D");
+					d = register(fp ? 'F' : '$');
+					comma();
+					int offset = integer();
+					expect('(');
+					skipSpace();
+					boolean addrReg = pos < line.length() && line.charAt(pos) == '$';
+					t = addrReg ? register('$') : integer();
+					expect(')');
+					operator memory = mnemonic.equals("LW") ? operator.LW : mnemonic.equals("SW") ? operator.SW
+						: mnemonic.equals("L.D") ? operator.LD : operator.SD;
+					inst = new Instruction(memory, d, 0, t, offset, addrReg);
+					break;
+				case "BEQ":
+				case "BNE":
+					d = register('$');
+					comma();
+					s = register('$');
+					comma();
+					operand = target();
+					inst = new Instruction(mnemonic.equals("BEQ") ? operator.BEQ : operator.BNE, d, s, 0, 0, false);
+					break;
+				case "J":
+					operand = target();
+					inst = new Instruction(operator.J, 0, 0, 0, 0, false);
+					break;
+				default:
+					throw new Syntax("Unrecognized instruction \""+mnemonic+"\"");
+				}
+				
+				skipSpace();
+				if (pos < line.length())
+					throw new Syntax("Unexpected \""+rest(pos)+"\" after the operands of "+mnemonic);
+				return inst;
+			} catch (Syntax e) {
+				errors.add(e.getMessage()+" on line "+lineNumber+": "+raw.trim());
+				operand = null;
+				return null;
 			}
-			
-			break;
-			
-		case SD: // For S.D, memory[offset + $addr] = Fd
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Is = Integer.parseInt(valGetter.nextToken());
-			
-			addr = valGetter.nextToken();
-			
-			It = R[Integer.parseInt(addr.substring(1))];
-			
-			memory[Is+It] = Math.round(FP[d]);
-			
-			break;
-			
-		case LI: // For LI, $d = imm
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			imm = Integer.parseInt(valGetter.nextToken());
-			R[d] = imm;
-			break;
-			
-		case LW:
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Is = Integer.parseInt(valGetter.nextToken());
-			
-			addr = valGetter.nextToken();
-			
-			if (addr.startsWith("$")) { // If addr is a register, $d = offset + $addr
-				It = memory[R[Integer.parseInt(addr.substring(1))]];
-				R[d] = Is + It;
-			} else { // If addr is a memory address, $d = memory[offset + addr]
-				It = Integer.parseInt(addr);
-				R[d] = memory[Is+It];
+		}
+		
+		void skipSpace() {
+			while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+				pos++;
 			}
-			
-			break;
+		}
 		
-		case SW: // For SW, memory[offset + $addr] = $d
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Is = Integer.parseInt(valGetter.nextToken());
-			
-			addr = valGetter.nextToken();
-			
-			It = R[Integer.parseInt(addr.substring(1))];
-			
-			memory[Is + It] = R[d];
-			
-			break;
+		// word()
+		// Reads a mnemonic or label: letters, digits, underscores and dots.
+		String word() {
+			int start = pos;
+			while (pos < line.length()) {
+				char ch = line.charAt(pos);
+				if (!Character.isLetterOrDigit(ch) && ch != '_' && ch != '.')
+					break;
+				pos++;
+			}
+			return line.substring(start, pos);
+		}
 		
-		case ADD: // For ADD, $d = $s + $t
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Is = R[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			It = R[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			R[d] = Is + It;
-			break;
+		// register()
+		// Reads a register operand with the given prefix ("$4" or "F4") and returns its index in the R or FP array.
+		int register(char prefix) throws Syntax {
+			skipSpace();
+			if (pos == line.length() || line.charAt(pos) != prefix)
+				throw new Syntax("Expected a register such as "+prefix+"4, found \""+rest(pos)+"\"");
+			pos++;
+			int start = pos;
+			int index = 0;
+			while (pos < line.length() && line.charAt(pos) >= '0' && line.charAt(pos) <= '9' && index < 32) {
+				index = index*10+(line.charAt(pos++)-'0');
+			}
+			if (pos == start || index >= 32)
+				throw new Syntax("Register "+prefix+line.substring(start, Math.min(pos, line.length()))+" does not exist");
+			return index;
+		}
 		
-		case ADDI: // For ADDI, $d = $s + imm
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Is = R[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			imm = Integer.parseInt(valGetter.nextToken());
-			
-			R[d] = Is + imm;
-			
-			break;
+		// integer()
+		// Reads an optionally signed decimal integer.
+		int integer() throws Syntax {
+			skipSpace();
+			int start = pos;
+			boolean negative = false;
+			if (pos < line.length() && (line.charAt(pos) == '-' || line.charAt(pos) == '+'))
+				negative = line.charAt(pos++) == '-';
+			long value = 0;
+			int digits = pos;
+			while (pos < line.length() && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+				value = value*10+(line.charAt(pos++)-'0');
+				if (value > Integer.MAX_VALUE+1L)
+					throw new Syntax("Number "+rest(start)+" is too large");
+			}
+			if (pos == digits)
+				throw new Syntax("Expected a number, found \""+rest(start)+"\"");
+			value = negative ? -value : value;
+			if (value > Integer.MAX_VALUE)
+				throw new Syntax("Number "+line.substring(start, pos)+" is too large");
+			return (int)value;
+		}
 		
-		case ADD_D: // For ADD.D, Fd = Fs + Ft
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Fs = FP[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			Ft = FP[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			FP[d] = Fs + Ft;
-			break;
+		// target()
+		// Reads the label or signed number a branch continues at.
+		String target() throws Syntax {
+			skipSpace();
+			int start = pos;
+			if (pos < line.length() && (line.charAt(pos) == '-' || line.charAt(pos) == '+'))
+				pos++;
+			String word = word();
+			if (word.isEmpty())
+				throw new Syntax("Expected a label or number to branch to, found \""+rest(start)+"\"");
+			return line.substring(start, pos);
+		}
 		
-		case SUB: // For SUB, $d = $s - $t
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Is = R[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			It = R[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			R[d] = Is - It;
-			break;
+		void comma() throws Syntax {
+			expect(',');
+		}
 		
-		case SUB_D: // For SUB.D, Fd = Fs - Ft
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Fs = FP[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			Ft = FP[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			FP[d] = Fs - Ft;
-			break;
+		void expect(char ch) throws Syntax {
+			skipSpace();
+			if (pos == line.length() || line.charAt(pos) != ch)
+				throw new Syntax("Expected \""+ch+"\", found \""+rest(pos)+"\"");
+			pos++;
+		}
 		
-		case MUL_D: // For MUL.D, Fd = Fs * Ft
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Fs = FP[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			Ft = FP[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			FP[d] = Fs * Ft;
-			break;
-			
-		case DIV_D: // For DIV.D, Fd = Fs / Ft
-			d = Integer.parseInt(valGetter.nextToken().substring(1));
-			
-			Fs = FP[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			Ft = FP[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			FP[d] = Fs / Ft;
-			break;
-			
-		default:
-			System.out.println("/nError: Branch instructions should not store any memory. Exiting program.");
-			System.exit(0);
-			break;
+		// rest()
+		// Returns the rest of the line from a position, or "end of line" if there is nothing left.
+		String rest(int from) {
+			String rest = line.substring(Math.min(from, line.length())).trim();
+			return rest.isEmpty() ? "end of line" : rest;
 		}
 	}
 	
-	// taken()
-	// Given the operator and operands of the current instruction, determines whether a branch is being called when that instruction's pipeline is complete.
-	static boolean taken(operator o, String operands) {
+	// Cache
+	// A set-associative L1 data cache over word addresses. Only which lines it holds is modeled, not their data, which stays in Memory.
+	// Each access returns the number of MEM cycles it takes: the MEM latency on a hit and missLatency on a miss, plus
+	// cacheWriteBackLatency when the miss evicts a dirty line. A write-back cache allocates a line on a store miss and marks stored
+	// lines dirty. A write-through cache writes every store to memory, taking missLatency, and does not allocate on a store miss.
+	static final class Cache {
+		final int sets;
+		final int ways;
+		final int lineWords;
+		final boolean lru;
+		final boolean writeBack;
+		final int hitLatency;
+		final int missLatency;
+		final int writeBackLatency;
 		
-		int Is;
-		int It;
+		// One entry per way of each set, at set*ways+way
+		final long[] tags; // The line number held, or -1 for an empty way
+		final long[] stamps; // The access that last used the line (LRU) or filled it (FIFO)
+		final boolean[] dirty;
+		long clock = 0;
 		
-		StringTokenizer valGetter = new StringTokenizer(operands, "|");
+		long hits = 0;
+		long misses = 0;
+		long evictions = 0; // Dirty lines written back to memory
 		
-		switch (o) {
+		Cache(Config config) {
+			sets = config.cacheSets;
+			ways = config.cacheWays;
+			lineWords = config.cacheLineWords;
+			lru = config.cacheLRU;
+			writeBack = config.cacheWriteBack;
+			hitLatency = config.latency[stage.MEM.ordinal()];
+			missLatency = config.missLatency;
+			writeBackLatency = config.cacheWriteBackLatency;
+			tags = new long[sets*ways];
+			stamps = new long[sets*ways];
+			dirty = new boolean[sets*ways];
+			Arrays.fill(tags, -1);
+		}
 		
-		case J: // // For J (unconditional jump), branch is ALWAYS taken
-			return true;
-			
-		case BEQ: // For BEQ, if registers $s and $t point to the same value, the branch is taken
-			Is = R[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			It = R[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			if (Is == It) {
-				return true;
-			}
-			break;
-			
-		case BNE: // For BNE, if registers $s and $t point to the different values, the branch is taken
-			Is = R[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			It = R[Integer.parseInt(valGetter.nextToken().substring(1))];
-			
-			if (Is != It) {
-				return true;
+		// save()
+		// Writes the lines held and the counts, for restore().
+		void save(DataOutputStream out) throws IOException {
+			writeLongs(out, tags);
+			writeLongs(out, stamps);
+			for (boolean d : dirty) {
+				out.writeBoolean(d);
 			}
-			break;
+			out.writeLong(clock);
+			out.writeLong(hits);
+			out.writeLong(misses);
+			out.writeLong(evictions);
+		}
 		
-		default:
-			break;
+		void restore(DataInputStream in) throws IOException {
+			readLongs(in, tags);
+			readLongs(in, stamps);
+			for (int w = 0; w < dirty.length; w++) {
+				dirty[w] = in.readBoolean();
+			}
+			clock = in.readLong();
+			hits = in.readLong();
+			misses = in.readLong();
+			evictions = in.readLong();
 		}
 		
-		return false; // For different operators or an unfulfilled BEQ/BNE condition, move onto the next instruction
-	}
-	
-	// branchIndex()
+		// access()
+		// Given a word address and whether it is stored to, updates the cache and returns the MEM cycles of the access.
+		int access(int address, boolean store) {
+			long line = Integer.toUnsignedLong(address) / lineWords;
+			int first = (int)(line % sets)*ways;
+			clock++;
+			for (int w = first; w < first+ways; w++) {
+				if (tags[w] == line) {
+					hits++;
+					if (lru)
+						stamps[w] = clock;
+					if (store && writeBack)
+						dirty[w] = true;
+					return store && !writeBack ? missLatency : hitLatency;
+				}
+			}
+			misses++;
+			if (store && !writeBack)
+				return missLatency; // No write allocate
+			
+			int victim = first;
+			for (int w = first; w < first+ways; w++) {
+				if (tags[w] < 0) {
+					victim = w;
+					break;
+				}
+				if (stamps[w] < stamps[victim])
+					victim = w;
+			}
+			int cycles = missLatency;
+			if (tags[victim] >= 0 && dirty[victim]) {
+				evictions++;
+				cycles += writeBackLatency;
+			}
+			tags[victim] = line;
+			stamps[victim] = clock;
+			dirty[victim] = store;
+			return cycles;
+		}
+	}
+	
+	// Predictor
+	// A branch predictor with a direct-mapped branch target buffer, indexed by instruction. The direction of BEQ and BNE comes from the
+	// kind of predictor: always not taken, a 1-bit last outcome or a 2-bit saturating counter per entry, or a 2-bit counter chosen by the
+	// branch XORed with the global history of outcomes (gshare). J is always predicted taken. A branch predicted taken is only fetched
+	// from its target if the buffer holds that target, and falls through otherwise. A branch is predicted when it is fetched but only
+	// trains the tables and history once it resolves, so a branch fetched before an earlier one has resolved is predicted without it.
+	static final class Predictor {
+		static final String[] KINDS = {"perfect", "not-taken", "1-bit", "2-bit", "gshare"};
+		
+		final String kind;
+		final byte[] counters; // The last outcome (1-bit) or saturating counter (2-bit, gshare) of each entry
+		final int historyMask;
+		int history = 0; // The latest outcomes, newest in the lowest bit
+		final int[] btbBranch; // The branch each buffer entry holds the target of, or -1
+		final int[] btbTarget;
+		
+		final ArrayDeque<long[]> pending = new ArrayDeque<long[]>(); // Outcomes not trained yet: branch, target, jump, taken, resolve cycle
+		
+		long branches = 0;
+		long mispredictions = 0;
+		long squashed = 0; // Instructions fetched down a mispredicted path
+		
+		Predictor(Config config) {
+			kind = config.predictor;
+			counters = new byte[config.predictorEntries];
+			Arrays.fill(counters, kind.equals("1-bit") ? (byte)0 : (byte)1); // Not taken, or weakly not taken
+			historyMask = (1 << config.historyBits)-1;
+			btbBranch = new int[config.btbEntries];
+			btbTarget = new int[config.btbEntries];
+			Arrays.fill(btbBranch, -1);
+		}
+		
+		// predict()
+		// Given a branch and its index, returns the index of the instruction predicted to follow it.
+		int predict(int i, Instruction inst) {
+			boolean taken;
+			if (inst.op == operator.J)
+				taken = true;
+			else {
+				switch (kind) {
+				case "1-bit":
+					taken = counters[i % counters.length] == 1;
+					break;
+				case "2-bit":
+					taken = counters[i % counters.length] >= 2;
+					break;
+				case "gshare":
+					taken = counters[gshare(i)] >= 2;
+					break;
+				default: // not-taken
+					taken = false;
+					break;
+				}
+			}
+			int entry = i % btbBranch.length;
+			return taken && btbBranch[entry] == i ? btbTarget[entry] : i+1;
+		}
+		
+		// defer()
+		// Given a branch, its index, whether it was taken and the cycle it resolved in, keeps its outcome until resolve() reaches it.
+		void defer(int i, Instruction inst, boolean taken, long resolved) {
+			pending.addLast(new long[] {i, inst.target, inst.op == operator.J ? 1 : 0, taken ? 1 : 0, resolved});
+		}
+		
+		// resolve()
+		// Trains the predictor with every pending outcome of a branch that resolved before the given cycle, oldest first. Branches
+		// resolve in program order, since they issue in order and all spend the same cycles in EX.
+		void resolve(long cycle) {
+			while (!pending.isEmpty() && pending.peekFirst()[4] < cycle) {
+				long[] outcome = pending.pollFirst();
+				update((int)outcome[0], (int)outcome[1], outcome[2] != 0, outcome[3] != 0);
+			}
+		}
+		
+		// update()
+		// Given a branch's index and target, whether it is a jump and whether it was taken, trains the predictor and the branch target
+		// buffer.
+		void update(int i, int target, boolean jump, boolean taken) {
+			if (taken) {
+				btbBranch[i % btbBranch.length] = i;
+				btbTarget[i % btbBranch.length] = target;
+			}
+			if (jump)
+				return;
+			switch (kind) {
+			case "1-bit":
+				counters[i % counters.length] = (byte)(taken ? 1 : 0);
+				break;
+			case "2-bit":
+				counters[i % counters.length] = saturate(counters[i % counters.length], taken);
+				break;
+			case "gshare":
+				int entry = gshare(i);
+				counters[entry] = saturate(counters[entry], taken);
+				history = (history << 1 | (taken ? 1 : 0)) & historyMask;
+				break;
+			default:
+				break;
+			}
+		}
+		
+		// save()
+		// Writes the tables, history, pending outcomes and counts, for restore().
+		void save(DataOutputStream out) throws IOException {
+			out.write(counters);
+			out.writeInt(history);
+			for (int e = 0; e < btbBranch.length; e++) {
+				out.writeInt(btbBranch[e]);
+				out.writeInt(btbTarget[e]);
+			}
+			out.writeInt(pending.size());
+			for (long[] outcome : pending) {
+				for (long field : outcome) {
+					out.writeLong(field);
+				}
+			}
+			out.writeLong(branches);
+			out.writeLong(mispredictions);
+			out.writeLong(squashed);
+		}
+		
+		void restore(DataInputStream in) throws IOException {
+			in.readFully(counters);
+			history = in.readInt();
+			for (int e = 0; e < btbBranch.length; e++) {
+				btbBranch[e] = in.readInt();
+				btbTarget[e] = in.readInt();
+			}
+			pending.clear();
+			for (int n = in.readInt(); n > 0; n--) {
+				long[] outcome = new long[5];
+				for (int f = 0; f < outcome.length; f++) {
+					outcome[f] = in.readLong();
+				}
+				pending.addLast(outcome);
+			}
+			branches = in.readLong();
+			mispredictions = in.readLong();
+			squashed = in.readLong();
+		}
+		
+		// accuracy()
+		// Returns the fraction of branches that were predicted correctly, or 0 if there were none.
+		double accuracy() {
+			return Result.hitRate(branches-mispredictions, branches);
+		}
+		
+		int gshare(int i) {
+			return Math.floorMod(i ^ history, counters.length);
+		}
+		
+		static byte saturate(byte counter, boolean taken) {
+			return (byte)(taken ? Math.min(counter+1, 3) : Math.max(counter-1, 0));
+		}
+	}
+	
+	// Memory
+	// A sparse, word-addressed memory: every address holds one 32-bit word, and every word reads as 0 until it is written. Words are kept
+	// in off-heap pages of PAGE_WORDS words, allocated the first time a word in them is written, so memory use follows the pages a
+	// program actually touches rather than the range of its addresses. Pages are found through a two-level table of page numbers.
+	static final class Memory {
+		static final int PAGE_BITS = 12;
+		static final int PAGE_WORDS = 1 << PAGE_BITS;
+		static final int DIRECTORY_BITS = 10; // Pages per directory, as a power of two
+		
+		private final ByteBuffer[][] directories = new ByteBuffer[1 << (31-PAGE_BITS-DIRECTORY_BITS)][];
+		private int lastPageNumber = -1; // The most recently used page, which most accesses hit again
+		private ByteBuffer lastPage;
+		private int pages = 0;
+		private int size = 0; // One more than the highest address written so far
+		
+		// of()
+		// Returns a memory holding the given words from address 0.
+		static Memory of(int[] words) {
+			Memory memory = new Memory();
+			for (int a = 0; a < words.length; a++) {
+				memory.store(a, words[a]);
+			}
+			return memory;
+		}
+		
+		// load()
+		// Returns the word at an address.
+		int load(int address) {
+			ByteBuffer page = page(address, false);
+			return page == null ? 0 : page.getInt((address & (PAGE_WORDS-1)) << 2);
+		}
+		
+		// store()
+		// Writes the word at an address, allocating its page if it has none.
+		void store(int address, int value) {
+			page(address, true).putInt((address & (PAGE_WORDS-1)) << 2, value);
+			if (address >= size)
+				size = address+1;
+		}
+		
+		// size()
+		// Returns one more than the highest address written so far, which is the number of addresses printResults() shows.
+		int size() {
+			return size;
+		}
+		
+		int pages() {
+			return pages;
+		}
+		
+		// nonZero()
+		// Returns the lowest address from the given one on that holds a nonzero word, or -1 if there is none.
+		int nonZero(int from) {
+			for (int number = from >>> PAGE_BITS; number < 1 << (31-PAGE_BITS); number++) {
+				ByteBuffer[] directory = directories[number >>> DIRECTORY_BITS];
+				if (directory == null) {
+					number |= (1 << DIRECTORY_BITS)-1; // Skip the whole directory
+					continue;
+				}
+				ByteBuffer page = directory[number & ((1 << DIRECTORY_BITS)-1)];
+				if (page == null)
+					continue;
+				for (int w = number == from >>> PAGE_BITS ? from & (PAGE_WORDS-1) : 0; w < PAGE_WORDS; w++) {
+					if (page.getInt(w << 2) != 0)
+						return number << PAGE_BITS | w;
+				}
+			}
+			return -1;
+		}
+		
+		// copy()
+		// Returns an independent memory with the same words, copying only the allocated pages.
+		Memory copy() {
+			Memory copy = new Memory();
+			for (int d = 0; d < directories.length; d++) {
+				if (directories[d] == null)
+					continue;
+				copy.directories[d] = new ByteBuffer[directories[d].length];
+				for (int p = 0; p < directories[d].length; p++) {
+					if (directories[d][p] != null)
+						copy.directories[d][p] = allocate().put(0, directories[d][p], 0, PAGE_WORDS << 2);
+				}
+			}
+			copy.pages = pages;
+			copy.size = size;
+			return copy;
+		}
+		
+		// page()
+		// Returns the page holding an address, allocating it if asked to, or null if it has none.
+		private ByteBuffer page(int address, boolean allocate) {
+			if (address < 0)
+				throw new IllegalArgumentException("Address "+address+" is outside memory");
+			int number = address >>> PAGE_BITS;
+			if (number == lastPageNumber)
+				return lastPage;
+			ByteBuffer[] directory = directories[number >>> DIRECTORY_BITS];
+			if (directory == null) {
+				if (!allocate)
+					return null;
+				directory = directories[number >>> DIRECTORY_BITS] = new ByteBuffer[1 << DIRECTORY_BITS];
+			}
+			ByteBuffer page = directory[number & ((1 << DIRECTORY_BITS)-1)];
+			if (page == null) {
+				if (!allocate)
+					return null;
+				page = directory[number & ((1 << DIRECTORY_BITS)-1)] = allocate();
+				pages++;
+			}
+			lastPageNumber = number;
+			lastPage = page;
+			return page;
+		}
+		
+		private static ByteBuffer allocate() {
+			return ByteBuffer.allocateDirect(PAGE_WORDS << 2).order(ByteOrder.nativeOrder());
+		}
+		
+		// save()
+		// Writes the size and every allocated page, with its number, for restore().
+		void save(DataOutputStream out) throws IOException {
+			out.writeInt(size);
+			out.writeInt(pages);
+			for (int d = 0; d < directories.length; d++) {
+				for (int p = 0; directories[d] != null && p < directories[d].length; p++) {
+					ByteBuffer page = directories[d][p];
+					if (page == null)
+						continue;
+					out.writeInt(d << DIRECTORY_BITS | p);
+					for (int w = 0; w < PAGE_WORDS; w++) {
+						out.writeInt(page.getInt(w << 2));
+					}
+				}
+			}
+		}
+		
+		// restore()
+		// Replaces every word with those written by save().
+		void restore(DataInputStream in) throws IOException {
+			Arrays.fill(directories, null);
+			lastPageNumber = -1;
+			lastPage = null;
+			pages = 0;
+			int restoredSize = in.readInt();
+			int restoredPages = in.readInt();
+			for (int n = 0; n < restoredPages; n++) {
+				ByteBuffer page = page(in.readInt() << PAGE_BITS, true);
+				for (int w = 0; w < PAGE_WORDS; w++) {
+					page.putInt(w << 2, in.readInt());
+				}
+			}
+			size = restoredSize;
+		}
+		
+		// read()
+		// Given a memory image file, returns a memory holding its words. Each line of the file is a list of words separated by
+		// whitespace, stored at consecutive addresses; a line may start with "address:" to continue from that address instead of after
+		// the previous word. Anything after a "#" is a comment. Every line that cannot be read is reported in one exception.
+		static Memory read(Path file) throws IOException {
+			Memory memory = new Memory();
+			List<String> errors = new ArrayList<String>();
+			try (BufferedReader reader = Files.newBufferedReader(file)) {
+				String line;
+				int lineNumber = 0;
+				long address = 0;
+				while ((line = reader.readLine()) != null) {
+					lineNumber++;
+					int comment = line.indexOf('#');
+					if (comment >= 0)
+						line = line.substring(0, comment);
+					int colon = line.indexOf(':');
+					try {
+						if (colon >= 0) {
+							address = Long.parseLong(line.substring(0, colon).trim());
+							line = line.substring(colon+1);
+						}
+						StringTokenizer words = new StringTokenizer(line);
+						while (words.hasMoreTokens()) {
+							if (address < 0 || address > Integer.MAX_VALUE)
+								throw new IllegalArgumentException("Address "+address+" is outside memory");
+							memory.store((int)address++, Integer.parseInt(words.nextToken()));
+						}
+					} catch (IllegalArgumentException e) { // Including NumberFormatException
+						errors.add("Invalid memory image entry on line "+lineNumber+" of "+file+": "+e.getMessage());
+					}
+				}
+			}
+			if (!errors.isEmpty())
+				throw new IllegalArgumentException(String.join("\n", errors));
+			return memory;
+		}
+	}
+	
+	static final int[] DEFAULT_MEMORY = {45,12,0,92,10,135,254,127,18,4,55,8,2,98,13,5,233,158,167}; // Default memory values in addresses 0-18 given by project instructions
+	
+	// Program
+	// The raw text and decoded form of every instruction in a file, and the index each label is defined at. Never changed once
+	// sortInstructions() or map() returns it, so one Program can be shared by any number of simulators.
+	// A Program assembled into a binary file by assemble() is read back by map() without copying: each instruction is decoded from
+	// the mapped file the first time it is used, and its text the first time it is displayed.
+	// A Program returned by stream() instead reads and decodes its text file as instructions are asked for, and keeps only the last
+	// STREAM_WINDOW instructions, so it can only be used by one simulator and cannot branch back further than that.
 	//
-	static int branchIndex(int jumpCall) {
-		for (int i = jumpCall; i >= 0; i--) {
-			if (instructions.get(i).startsWith("Loop: ")) {
-				return i;
+	// The binary format is big-endian:
+	//   header       int MAGIC, int VERSION, int number of instructions, int number of labels
+	//   instructions one RECORD-byte record per instruction: byte operator ordinal, byte 1 if addrReg, byte d, byte s, int t, int imm,
+	//                int target
+	//   labels       per label: int index, short length, then that many bytes of UTF-8 name
+	//   text         int offset of each line's text from the start of the text bytes, one more int for the end, then the UTF-8 text
+	static final class Program {
+		static final int MAGIC = 0x4D435042; // "MCPB"
+		static final int VERSION = 1;
+		static final int HEADER = 16;
+		static final int RECORD = 16;
+		static final operator[] OPERATORS = operator.values();
+		static final int STREAM_WINDOW = 1 << 16; // A power of two
+		
+		private final String[] lines; // The RAW TEXT for each instruction in order, filled in as it is first needed for a mapped file
+		private final Instruction[] instructions; // The DECODED form of each instruction in order, likewise
+		final Map<String, Integer> labels; // The index of the instruction each label is defined at
+		private final ByteBuffer image; // The mapped binary file, or null for a Program sorted from text
+		private final int textStart; // The position in the image of the line offsets
+		private final Source source; // The text file being read, or null unless the Program is streamed
+		
+		Program(String[] lines, Instruction[] instructions, Map<String, Integer> labels) {
+			this.lines = lines;
+			this.instructions = instructions;
+			this.labels = Collections.unmodifiableMap(labels);
+			this.image = null;
+			this.textStart = 0;
+			this.source = null;
+		}
+		
+		private Program(ByteBuffer image, int size, Map<String, Integer> labels, int textStart) {
+			this.lines = new String[size];
+			this.instructions = new Instruction[size];
+			this.labels = Collections.unmodifiableMap(labels);
+			this.image = image;
+			this.textStart = textStart;
+			this.source = null;
+		}
+		
+		private Program(Source source) {
+			this.lines = new String[STREAM_WINDOW];
+			this.instructions = new Instruction[STREAM_WINDOW];
+			this.labels = Collections.unmodifiableMap(source.labels);
+			this.image = null;
+			this.textStart = 0;
+			this.source = source;
+			source.program = this;
+		}
+		
+		// size()
+		// Returns the number of instructions. Unknown for a streamed Program until the whole file has been read.
+		int size() {
+			if (source != null && !source.ended)
+				throw new IllegalStateException("The size of a streamed program is not known until it has been read");
+			return source != null ? source.loaded : instructions.length;
+		}
+		
+		boolean streamed() {
+			return source != null;
+		}
+		
+		// contains()
+		// Returns true if there is an instruction at an index, reading a streamed Program up to it, or false if the index is right
+		// after the last instruction, where the program ends.
+		boolean contains(int i) {
+			if (source == null)
+				return i < instructions.length;
+			while (i >= source.loaded && !source.ended) {
+				source.next();
+			}
+			if (i > source.loaded)
+				throw new IllegalArgumentException("Branch target "+i+" is outside the program");
+			return i < source.loaded;
+		}
+		
+		// instruction()
+		// Returns the decoded instruction at an index. Decoding a mapped instruction more than once, from several threads, is harmless
+		// because every field of an Instruction is final.
+		Instruction instruction(int i) {
+			if (source != null)
+				return source.instruction(i);
+			Instruction inst = instructions[i];
+			if (inst == null)
+				instructions[i] = inst = decode(i);
+			return inst;
+		}
+		
+		// line()
+		// Returns the raw text of the instruction at an index.
+		String line(int i) {
+			if (source != null)
+				return lines[source.slot(i)];
+			String line = lines[i];
+			if (line == null) {
+				int offset = textStart+4*(lines.length+1);
+				int from = image.getInt(textStart+4*i);
+				int to = image.getInt(textStart+4*(i+1));
+				byte[] text = new byte[to-from];
+				image.get(offset+from, text);
+				lines[i] = line = new String(text, StandardCharsets.UTF_8);
+			}
+			return line;
+		}
+		
+		// decode()
+		// Reads the record of the instruction at an index from the mapped file.
+		private Instruction decode(int i) {
+			int record = HEADER+RECORD*i;
+			int ordinal = image.get(record);
+			if (ordinal < 0 || ordinal >= OPERATORS.length)
+				throw new IllegalArgumentException("Instruction "+i+" of the assembled program has no operator "+ordinal);
+			int target = image.getInt(record+12);
+			if (target < -1 || target > size())
+				throw new IllegalArgumentException("Instruction "+i+" of the assembled program branches outside the program");
+			operator op = OPERATORS[ordinal];
+			int d = image.get(record+2);
+			int s = image.get(record+3);
+			int t = image.getInt(record+4);
+			boolean addrReg = image.get(record+1) != 0;
+			boolean tRegister = addrReg || op == operator.ADD || op == operator.SUB || op == operator.ADD_D || op == operator.SUB_D
+				|| op == operator.MUL_D || op == operator.DIV_D;
+			for (int register : new int[] {d, s, tRegister ? t : 0}) {
+				if (register < 0 || register >= 32)
+					throw new IllegalArgumentException("Instruction "+i+" of the assembled program has a bad register "+register);
+			}
+			return new Instruction(op, d, s, t, image.getInt(record+8), addrReg, target);
+		}
+		
+		// assemble()
+		// Writes this Program to a binary file that map() reads back.
+		void assemble(Path file) throws IOException {
+			byte[][] text = new byte[size()][];
+			for (int i = 0; i < size(); i++) {
+				text[i] = line(i).getBytes(StandardCharsets.UTF_8);
+			}
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(size());
+				out.writeInt(labels.size());
+				for (int i = 0; i < size(); i++) {
+					Instruction inst = instruction(i);
+					out.writeByte(inst.op.ordinal());
+					out.writeByte(inst.addrReg ? 1 : 0);
+					out.writeByte(inst.d);
+					out.writeByte(inst.s);
+					out.writeInt(inst.t);
+					out.writeInt(inst.imm);
+					out.writeInt(inst.target);
+				}
+				for (Map.Entry<String, Integer> label : labels.entrySet()) {
+					byte[] name = label.getKey().getBytes(StandardCharsets.UTF_8);
+					out.writeInt(label.getValue());
+					out.writeShort(name.length);
+					out.write(name);
+				}
+				int offset = 0;
+				for (int i = 0; i < size(); i++) {
+					out.writeInt(offset);
+					offset += text[i].length;
+				}
+				out.writeInt(offset);
+				for (int i = 0; i < size(); i++) {
+					out.write(text[i]);
+				}
+			}
+		}
+		
+		// map()
+		// Given a binary file written by assemble(), maps it into memory and returns its Program. Only the header and labels are read
+		// here; instructions and their text are read from the mapped file as they are needed.
+		static Program map(Path file) throws IOException {
+			ByteBuffer image;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				if (channel.size() > Integer.MAX_VALUE)
+					throw new IllegalArgumentException(file+" is too large to be an assembled program");
+				image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			try {
+				if (image.getInt(0) != MAGIC || image.getInt(4) != VERSION)
+					throw new IllegalArgumentException(file+" is not a program assembled by this version of the simulator");
+				int size = image.getInt(8);
+				int labelCount = image.getInt(12);
+				if (size < 0 || labelCount < 0 || (long)HEADER+(long)RECORD*size > image.limit())
+					throw new IllegalArgumentException(file+" is not a complete assembled program");
+				
+				Map<String, Integer> labels = new HashMap<String, Integer>();
+				int position = HEADER+RECORD*size;
+				for (int l = 0; l < labelCount; l++) {
+					int index = image.getInt(position);
+					byte[] name = new byte[image.getShort(position+4) & 0xFFFF];
+					image.get(position+6, name);
+					labels.put(new String(name, StandardCharsets.UTF_8), index);
+					position += 6+name.length;
+				}
+				if ((long)position+4L*(size+1) > image.limit())
+					throw new IllegalArgumentException(file+" is not a complete assembled program");
+				int previous = 0; // Each line must start where the previous one did or later, and the last must end within the file
+				for (int i = 0; i <= size; i++) {
+					int offset = image.getInt(position+4*i);
+					if (offset < previous || position+4L*(size+1)+offset > image.limit())
+						throw new IllegalArgumentException(file+" is not a complete assembled program");
+					previous = offset;
+				}
+				return new Program(image, size, labels, position);
+			} catch (IndexOutOfBoundsException e) {
+				throw new IllegalArgumentException(file+" is not a complete assembled program");
+			}
+		}
+		
+		// stream()
+		// Given a text file, returns a Program that reads and decodes it as its instructions are asked for.
+		static Program stream(Path file) throws IOException {
+			return new Program(new Source(Files.newBufferedReader(file)));
+		}
+		
+		// Source
+		// The reading state of a streamed Program. Instruction i is kept in slot i % STREAM_WINDOW of the Program's arrays until
+		// instruction i+STREAM_WINDOW is read. A branch to a label that is not defined yet is resolved once a later line defines it.
+		private static final class Source {
+			final BufferedReader reader;
+			final Map<String, Integer> labels = new HashMap<String, Integer>();
+			final Parser parser = new Parser(labels);
+			final Map<String, List<Integer>> pending = new HashMap<String, List<Integer>>(); // Branches waiting for each undefined label
+			final int[] lineNumbers = new int[STREAM_WINDOW];
+			Program program;
+			int loaded = 0; // The number of instructions read so far
+			int lineNumber = 0;
+			boolean ended = false;
+			
+			Source(BufferedReader reader) {
+				this.reader = reader;
+			}
+			
+			// slot()
+			// Returns the slot of a read instruction that is still kept.
+			int slot(int i) {
+				if (i < loaded-STREAM_WINDOW)
+					throw new IllegalStateException("Instruction "+i+" is more than "+STREAM_WINDOW+" instructions back and is no longer kept;"
+						+" run the program without --stream");
+				return i & (STREAM_WINDOW-1);
+			}
+			
+			// instruction()
+			// Returns the instruction at an index, reading on until the label a branch continues at is defined.
+			Instruction instruction(int i) {
+				if (!program.contains(i))
+					throw new IndexOutOfBoundsException("Instruction "+i+" is past the end of the program");
+				Instruction inst = program.instructions[slot(i)];
+				while (inst.op.isBranch() && inst.target < 0) {
+					if (ended)
+						throw new IllegalArgumentException("Undefined label on line "+lineNumbers[slot(i)]);
+					next();
+					inst = program.instructions[slot(i)];
+				}
+				return inst;
+			}
+			
+			// next()
+			// Reads lines until the next instruction, decodes it into its slot and resolves the branches waiting for any label defined
+			// on the way. Marks the stream ended at the end of the file.
+			void next() {
+				try {
+					String raw;
+					while ((raw = reader.readLine()) != null) {
+						lineNumber++;
+						Instruction inst = parser.parse(raw, lineNumber, loaded);
+						if (!parser.errors.isEmpty())
+							throw new IllegalArgumentException(parser.errors.get(0));
+						if (!pending.isEmpty())
+							resolve();
+						if (inst == null)
+							continue;
+						
+						String operand = parser.operand;
+						if (operand != null) {
+							char first = operand.charAt(0);
+							if (labels.containsKey(operand) || !(Character.isLetter(first) || first == '_'))
+								inst = inst.withTarget(branchIndex(inst.op, operand, loaded, labels, Integer.MAX_VALUE, lineNumber));
+							else
+								pending.computeIfAbsent(operand, label -> new ArrayList<Integer>()).add(loaded);
+						}
+						int slot = loaded & (STREAM_WINDOW-1);
+						program.lines[slot] = raw;
+						program.instructions[slot] = inst;
+						lineNumbers[slot] = lineNumber;
+						loaded++;
+						return;
+					}
+					ended = true;
+					reader.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			
+			// resolve()
+			// Sets the target of every waiting branch whose label is now defined and is still kept.
+			void resolve() {
+				Iterator<Map.Entry<String, List<Integer>>> waiting = pending.entrySet().iterator();
+				while (waiting.hasNext()) {
+					Map.Entry<String, List<Integer>> entry = waiting.next();
+					Integer target = labels.get(entry.getKey());
+					if (target == null)
+						continue;
+					for (int i : entry.getValue()) {
+						if (i >= loaded-STREAM_WINDOW)
+							program.instructions[i & (STREAM_WINDOW-1)] = program.instructions[i & (STREAM_WINDOW-1)].withTarget(target);
+					}
+					waiting.remove();
+				}
+			}
+		}
+	}
+	
+	// Row
+	// The pipeline of one dynamic instruction as it appears in the timeline: the cycle it started fetching at, then one cell per cycle
+	// until it completed. Each cell is the instruction's state at that cycle, with STALLED added if the cycle was displayed as a stall.
+	// An instruction fetched down a mispredicted path ends with a SQUASHED cell the cycle after the branch was resolved.
+	static final class Row {
+		static final int STALLED = 1 << 30;
+		static final int SQUASHED = 1 << 29;
+		
+		final String text;
+		final long start;
+		final int[] cells;
+		
+		Row(String text, long start, int[] cells) {
+			this.text = text;
+			this.start = start;
+			this.cells = cells;
+		}
+	}
+	
+	// Result
+	// Everything a finished simulation produced: the timeline (null unless it was recorded), the final registers and memory,
+	// the number of cycles and dynamic instructions it took, and how many instruction-cycles were displayed as a stall.
+	// Stalls are also counted by cause, which is the stage that was busy (indexed by stage ordinal) or DATA_HAZARD for an instruction
+	// waiting in ID for a source register, and by static instruction.
+	// The busy cycles of each functional unit and MEM are the cycles it was booked: every cycle an instruction spent in a unit that is
+	// not pipelined, but only the cycle an instruction entered a pipelined one, so a pipelined unit is fully used at one entry per cycle.
+	// The issue counts hold the number of cycles in which each number of instructions, from 0 up to the width, left ID for their units.
+	// If the L1 cache was modeled, its hits, misses and dirty evictions are kept too, with the accesses and hits of each static instruction,
+	// and if branches were predicted, the predictor's totals are kept with the executions and correct predictions of each static branch.
+	static final class Result {
+		static final int DATA_HAZARD = STAGES.length; // The cause index of a stall for an operand that is not ready yet
+		static final int[] CAUSES = {DATA_HAZARD, stage.ID.ordinal(), stage.EX.ordinal(), stage.A.ordinal(), stage.M.ordinal(),
+			stage.D.ordinal(), stage.MEM.ordinal(), stage.WB.ordinal()};
+		
+		static final int PRINTED_ADDRESSES = 1024; // printResults() shows every address of a memory up to this size
+		
+		final List<Row> timeline;
+		final int[] R;
+		final float[] FP;
+		final int writtenR;
+		final int writtenFP;
+		final Memory memory;
+		final long cycles;
+		final long instructions;
+		final long stalls;
+		final Program program; // The simulated program, for the text of each static instruction
+		final long[] stallsByCause;
+		final long[] stallsByInstruction; // Null for a streamed Program, whose instructions are not all kept
+		final long[] busyCycles; // Summed over every copy of a unit
+		final int[] count; // The copies of each unit, indexed by stage ordinal
+		final long[] issueCycles; // Cycles by the number of instructions issued in them
+		final Cache cache; // Null if the cache was not modeled
+		final long[] accessesByInstruction; // Null if the cache was not modeled or the Program was streamed
+		final long[] hitsByInstruction;
+		final Predictor predictor; // Null if every branch was fetched down the correct path
+		final long[] branchesByInstruction; // Null if there was no predictor or the Program was streamed
+		final long[] correctByInstruction;
+		final long functional; // Dynamic instructions executed without timing, outside the region of interest
+		
+		Result(List<Row> timeline, int[] R, float[] FP, int writtenR, int writtenFP, Memory memory, long cycles, long instructions, long stalls,
+				Program program, long[] stallsByCause, long[] stallsByInstruction, long[] busyCycles, int[] count, long[] issueCycles, Cache cache,
+				long[] accessesByInstruction, long[] hitsByInstruction, Predictor predictor, long[] branchesByInstruction,
+				long[] correctByInstruction, long functional) {
+			this.timeline = timeline;
+			this.R = R;
+			this.FP = FP;
+			this.writtenR = writtenR;
+			this.writtenFP = writtenFP;
+			this.memory = memory;
+			this.cycles = cycles;
+			this.instructions = instructions;
+			this.stalls = stalls;
+			this.program = program;
+			this.stallsByCause = stallsByCause;
+			this.stallsByInstruction = stallsByInstruction;
+			this.busyCycles = busyCycles;
+			this.count = count;
+			this.issueCycles = issueCycles;
+			this.cache = cache;
+			this.accessesByInstruction = accessesByInstruction;
+			this.hitsByInstruction = hitsByInstruction;
+			this.predictor = predictor;
+			this.branchesByInstruction = branchesByInstruction;
+			this.correctByInstruction = correctByInstruction;
+			this.functional = functional;
+		}
+		
+		// cpi()
+		// Returns the average number of cycles per dynamic instruction, or 0 for a program that ran no instructions.
+		double cpi() {
+			return instructions == 0 ? 0 : (double)cycles / instructions;
+		}
+		
+		// utilization()
+		// Returns the fraction of all cycles a functional unit or MEM was busy, averaged over its copies.
+		double utilization(stage unit) {
+			return cycles == 0 ? 0 : (double)busyCycles[unit.ordinal()] / (cycles*count[unit.ordinal()]);
+		}
+		
+		// hitRate()
+		// Returns the fraction of the given number of cache accesses that hit, or of branches that were predicted correctly,
+		// or 0 for none.
+		static double hitRate(long hits, long accesses) {
+			return accesses == 0 ? 0 : (double)hits / accesses;
+		}
+		
+		// causeName()
+		// Returns the description of a stall with the given cause: a data hazard, or the ordinal of the stage that was busy.
+		static String causeName(int cause) {
+			if (cause == DATA_HAZARD)
+				return "operand not ready";
+			stage busy = STAGES[cause];
+			switch (busy) {
+			case ID:
+				return "ID busy";
+			case EX:
+				return "integer unit busy";
+			case A:
+				return "FP adder busy";
+			case M:
+				return "multiplier busy";
+			case D:
+				return "divider busy";
+			case MEM:
+				return "MEM port busy";
+			case WB:
+				return "WB busy";
+			default:
+				throw new IllegalArgumentException("No stall is caused by "+busy);
+			}
+		}
+		
+		// printSummary()
+		// Displays the total cycles, dynamic instructions, CPI and stall cycles of the simulation, with every cause of a stall.
+		void printSummary() {
+			System.out.println("Total cycles: "+cycles);
+			System.out.println("Instructions: "+instructions);
+			if (functional > 0)
+				System.out.println("Executed without timing: "+functional+" instructions outside the region of interest");
+			System.out.println("CPI: "+String.format(Locale.ROOT, "%.4f", cpi()));
+			System.out.println("Stall cycles: "+stalls);
+			for (int cause : CAUSES) {
+				if (stallsByCause[cause] > 0)
+					System.out.println("  "+causeName(cause)+": "+stallsByCause[cause]);
+			}
+			if (issueCycles.length > 2) {
+				System.out.print("Cycles issuing 0-"+(issueCycles.length-1)+" instructions:");
+				for (long c : issueCycles) {
+					System.out.print(" "+c);
+				}
+				System.out.println();
+			}
+			if (cache != null) {
+				System.out.println("L1 hit rate: "+String.format(Locale.ROOT, "%.4f", hitRate(cache.hits, cache.hits+cache.misses))
+					+" ("+cache.hits+" hits, "+cache.misses+" misses, "+cache.evictions+" dirty evictions)");
+			}
+			if (predictor != null) {
+				System.out.println("Branch prediction ("+predictor.kind+"): "+predictor.branches+" branches, "+predictor.mispredictions
+					+" mispredicted, accuracy "+String.format(Locale.ROOT, "%.4f", predictor.accuracy())+", "+predictor.squashed+" instructions squashed");
+			}
+		}
+		
+		// writeCsv()
+		// Writes the statistics of the simulation as "category,name,value" lines: the totals and CPI, the stall cycles of each cause,
+		// the busy cycles and utilization of each unit, the cycles that issued each number of instructions, the cache totals if it was modeled, and the stall cycles of each static instruction,
+		// named "index: text", with its cache hit rate and branch prediction accuracy, unless the Program was streamed.
+		void writeCsv(Writer out) throws IOException {
+			out.write("category,name,value\n");
+			out.write("total,cycles,"+cycles+"\n");
+			out.write("total,instructions,"+instructions+"\n");
+			if (functional > 0)
+				out.write("total,functional_instructions,"+functional+"\n");
+			out.write("total,cpi,"+String.format(Locale.ROOT, "%.4f", cpi())+"\n");
+			out.write("total,stall_cycles,"+stalls+"\n");
+			for (int cause : CAUSES) {
+				out.write("stalls,"+causeName(cause)+","+stallsByCause[cause]+"\n");
+			}
+			for (stage unit : Config.UNITS) {
+				out.write("busy_cycles,"+unit+","+busyCycles[unit.ordinal()]+"\n");
+				out.write("utilization,"+unit+","+String.format(Locale.ROOT, "%.4f", utilization(unit))+"\n");
+			}
+			for (int n = 0; n < issueCycles.length; n++) {
+				out.write("issue_cycles,"+n+","+issueCycles[n]+"\n");
+			}
+			if (cache != null) {
+				out.write("cache,hits,"+cache.hits+"\n");
+				out.write("cache,misses,"+cache.misses+"\n");
+				out.write("cache,dirty_evictions,"+cache.evictions+"\n");
+				out.write("cache,hit_rate,"+String.format(Locale.ROOT, "%.4f", hitRate(cache.hits, cache.hits+cache.misses))+"\n");
+			}
+			if (predictor != null) {
+				out.write("branches,executed,"+predictor.branches+"\n");
+				out.write("branches,mispredicted,"+predictor.mispredictions+"\n");
+				out.write("branches,squashed_instructions,"+predictor.squashed+"\n");
+				out.write("branches,accuracy,"+String.format(Locale.ROOT, "%.4f", predictor.accuracy())+"\n");
+			}
+			for (int i = 0; stallsByInstruction != null && i < program.size(); i++) {
+				out.write("instruction_stalls,"+csv(i+": "+program.line(i))+","+stallsByInstruction[i]+"\n");
+				if (accessesByInstruction != null && accessesByInstruction[i] > 0) {
+					out.write("instruction_hit_rate,"+csv(i+": "+program.line(i))+","
+						+String.format(Locale.ROOT, "%.4f", hitRate(hitsByInstruction[i], accessesByInstruction[i]))+"\n");
+				}
+				if (branchesByInstruction != null && branchesByInstruction[i] > 0) {
+					out.write("instruction_branch_accuracy,"+csv(i+": "+program.line(i))+","
+						+String.format(Locale.ROOT, "%.4f", hitRate(correctByInstruction[i], branchesByInstruction[i]))+"\n");
+				}
+			}
+		}
+		
+		// writeJson()
+		// Writes the same statistics as writeCsv() as one JSON object.
+		void writeJson(Writer out) throws IOException {
+			out.write("{\n");
+			out.write("  \"cycles\": "+cycles+",\n");
+			out.write("  \"instructions\": "+instructions+",\n");
+			if (functional > 0)
+				out.write("  \"functionalInstructions\": "+functional+",\n");
+			out.write("  \"cpi\": "+String.format(Locale.ROOT, "%.4f", cpi())+",\n");
+			out.write("  \"stallCycles\": "+stalls+",\n");
+			out.write("  \"stallsByCause\": {");
+			for (int c = 0; c < CAUSES.length; c++) {
+				out.write((c == 0 ? "\n" : ",\n")+"    "+json(causeName(CAUSES[c]))+": "+stallsByCause[CAUSES[c]]);
+			}
+			out.write("\n  },\n");
+			out.write("  \"units\": {");
+			for (int u = 0; u < Config.UNITS.length; u++) {
+				stage unit = Config.UNITS[u];
+				out.write((u == 0 ? "\n" : ",\n")+"    "+json(unit.toString())+": {\"busyCycles\": "+busyCycles[unit.ordinal()]
+					+", \"utilization\": "+String.format(Locale.ROOT, "%.4f", utilization(unit))+"}");
+			}
+			out.write("\n  },\n");
+			out.write("  \"issueCycles\": [");
+			for (int n = 0; n < issueCycles.length; n++) {
+				out.write((n == 0 ? "" : ", ")+issueCycles[n]);
+			}
+			out.write("]");
+			if (cache != null) {
+				out.write(",\n  \"cache\": {\"hits\": "+cache.hits+", \"misses\": "+cache.misses+", \"dirtyEvictions\": "+cache.evictions
+					+", \"hitRate\": "+String.format(Locale.ROOT, "%.4f", hitRate(cache.hits, cache.hits+cache.misses))+"}");
+			}
+			if (predictor != null) {
+				out.write(",\n  \"branches\": {\"predictor\": "+json(predictor.kind)+", \"executed\": "+predictor.branches+", \"mispredicted\": "
+					+predictor.mispredictions+", \"squashedInstructions\": "+predictor.squashed+", \"accuracy\": "
+					+String.format(Locale.ROOT, "%.4f", predictor.accuracy())+"}");
+			}
+			if (stallsByInstruction == null) {
+				out.write("\n}\n");
+				return;
+			}
+			out.write(",\n  \"staticInstructions\": [");
+			for (int i = 0; i < program.size(); i++) {
+				out.write((i == 0 ? "\n" : ",\n")+"    {\"index\": "+i+", \"text\": "+json(program.line(i))+", \"stallCycles\": "+stallsByInstruction[i]);
+				if (accessesByInstruction != null && accessesByInstruction[i] > 0) {
+					out.write(", \"cacheAccesses\": "+accessesByInstruction[i]+", \"hitRate\": "
+						+String.format(Locale.ROOT, "%.4f", hitRate(hitsByInstruction[i], accessesByInstruction[i])));
+				}
+				if (branchesByInstruction != null && branchesByInstruction[i] > 0) {
+					out.write(", \"branches\": "+branchesByInstruction[i]+", \"branchAccuracy\": "
+						+String.format(Locale.ROOT, "%.4f", hitRate(correctByInstruction[i], branchesByInstruction[i])));
+				}
+				out.write("}");
+			}
+			out.write("\n  ]\n}\n");
+		}
+		
+		// printResults()
+		// Displays the final values in registers and memory.
+		void printResults() {
+			System.out.println("Final values in float registers:");
+			for (int i = 0; i < FP.length; i++) {
+				System.out.println("F"+i+" -> "+((writtenFP >>> i & 1) != 0 ? Float.toString(FP[i]) : "null"));
+			}
+			System.out.println("\nFinal values in int registers:");
+			for (int i = 0; i < R.length; i++) {
+				System.out.println("$"+i+" -> "+((writtenR >>> i & 1) != 0 ? Integer.toString(R[i]) : "null"));
+			}
+			System.out.println("\nFinal values in memory:");
+			if (memory.size() <= PRINTED_ADDRESSES) {
+				for (int i = 0; i < memory.size(); i++) {
+					System.out.println("Address "+i+" -> "+memory.load(i));
+				}
+				return;
+			}
+			// A large memory is mostly zeros, so only its nonzero words are shown
+			int shown = 0;
+			for (int i = memory.nonZero(0); i >= 0 && shown < PRINTED_ADDRESSES; i = memory.nonZero(i+1), shown++) {
+				System.out.println("Address "+i+" -> "+memory.load(i));
+			}
+			System.out.println("(Only nonzero addresses are shown"+(shown == PRINTED_ADDRESSES ? ", up to "+PRINTED_ADDRESSES : "")+"; "
+				+memory.pages()+" pages of "+Memory.PAGE_WORDS+" words in use)");
+		}
+	}
+	
+	// TimelineRenderer
+	// Writes timeline rows in columns through one large buffer. Each row is the instruction text padded to 25 characters, then one
+	// 10-character cell per cycle. The padded text of every cell is built once per state and reused, instead of formatting each cell.
+	static final class TimelineRenderer {
+		static final int TEXT_WIDTH = 25;
+		static final int CELL_WIDTH = 10;
+		static final char[] BLANKS = new char[CELL_WIDTH*64];
+		static {
+			Arrays.fill(BLANKS, ' ');
+		}
+		
+		final Writer out;
+		final String newline = System.lineSeparator();
+		final String blank = pad("", CELL_WIDTH);
+		final String stalled = pad("stall", CELL_WIDTH);
+		final String squashed = pad("squashed", CELL_WIDTH);
+		String[] cells = new String[64]; // Padded cell text by state, filled in as states are first displayed
+		int[] issued = null; // Instructions issued by cycle, counted from the rendered rows once countIssues() is called
+		int issueCycles = 0; // One past the last cycle anything issued in
+		
+		TimelineRenderer(Writer out) {
+			this.out = new BufferedWriter(out, 1 << 16);
+		}
+		
+		// countIssues()
+		// Makes the renderer count the instructions that leave ID in each cycle, for renderIssues() to write after the last row.
+		TimelineRenderer countIssues() {
+			issued = new int[64];
+			return this;
+		}
+		
+		// render()
+		// Writes every row of a timeline in order.
+		void render(List<Row> timeline) throws IOException {
+			for (Row row : timeline) {
+				render(row);
+			}
+		}
+		
+		// render()
+		// Writes one row: its text, a blank cell for each cycle before it started, then a cell for each cycle until it completed.
+		void render(Row row) throws IOException {
+			out.write(row.text);
+			blanks(TEXT_WIDTH-row.text.length());
+			blanks(row.start*CELL_WIDTH);
+			for (int cell : row.cells) {
+				out.write(displayStage(cell));
+			}
+			out.write(newline);
+			if (issued != null)
+				countIssue(row);
+		}
+		
+		// countIssue()
+		// Counts the cycle a row entered EX, A, M or D, if it did and was not squashed, like the issue counts of the simulation.
+		void countIssue(Row row) {
+			if (row.cells.length > 0 && (row.cells[row.cells.length-1] & Row.SQUASHED) != 0)
+				return;
+			for (int k = 0; k < row.cells.length; k++) {
+				stage current = stageOf(row.cells[k]);
+				if (current == stage.EX || current == stage.A || current == stage.M || current == stage.D) {
+					int cycle = (int)(row.start+k);
+					if (cycle >= issued.length)
+						issued = Arrays.copyOf(issued, Math.max(issued.length*2, cycle+1));
+					issued[cycle]++;
+					issueCycles = Math.max(issueCycles, cycle+1);
+					return;
+				}
+			}
+		}
+		
+		// renderIssues()
+		// Writes a last row holding the number of instructions that issued in each cycle of the rendered rows.
+		void renderIssues() throws IOException {
+			out.write(pad("Issued", TEXT_WIDTH));
+			for (int c = 0; c < issueCycles; c++) {
+				out.write(pad(Integer.toString(issued[c]), CELL_WIDTH));
+			}
+			out.write(newline);
+		}
+		
+		void flush() throws IOException {
+			out.flush();
+		}
+		
+		// displayStage()
+		// Given one cell of a Row, returns a certain padded string based on the status of a pipeline.
+		// Returns blanks if it is idle, "stall" if the cycle was found to be stalling, "squashed" where a wrongly fetched instruction was
+		// removed, or the name of the current stage otherwise.
+		String displayStage(int cell) {
+			if ((cell & Row.SQUASHED) != 0)
+				return squashed;
+			stage current = stageOf(cell);
+			if (current == stage.idle || current == stage.complete)
+				return blank;
+			if ((cell & Row.STALLED) != 0)
+				return stalled;
+			if (cell >= cells.length)
+				cells = Arrays.copyOf(cells, Math.max(cells.length*2, cell+1));
+			if (cells[cell] == null)
+				cells[cell] = pad(stateName(cell), CELL_WIDTH);
+			return cells[cell];
+		}
+		
+		// blanks()
+		// Writes the given number of spaces, if it is positive.
+		void blanks(long count) throws IOException {
+			while (count > 0) {
+				int chunk = (int)Math.min(count, BLANKS.length);
+				out.write(BLANKS, 0, chunk);
+				count -= chunk;
 			}
 		}
-		return 0;
+		
+		// pad()
+		// Returns the text followed by enough spaces to fill the given width, or the text itself if it is already that wide.
+		static String pad(String text, int width) {
+			StringBuilder padded = new StringBuilder(text);
+			while (padded.length() < width) {
+				padded.append(' ');
+			}
+			return padded.toString();
+		}
 	}
 	
-	// printResults()
-	// Displays the final values in registers and 
-	static void printResults() {
-		System.out.println("Final values in float registers:");
-		for (int i = 0; i < FP.length; i++) {
-			System.out.println("F"+i+" -> "+FP[i]);
+	// ReservationTable
+	// A ring of resource masks indexed by absolute cycle (cycle & mask). Bit n of a cycle's mask is set while the resource of the stage with
+	// ordinal n (IF, ID, a functional unit, the MEM port or the WB port) is booked at that cycle. Every in-flight instruction books the
+	// resources it occupies, so checking for a structural hazard against all of them is a single bit test.
+	static final class ReservationTable {
+		long[] slots = new long[64];
+		int mask = 63;
+		long start = 0; // The oldest cycle still held
+		long end = 0; // One past the newest cycle with a booking
+		
+		// free()
+		// Given a cycle and the bits of some resources, determines whether none of those resources are booked at that cycle.
+		boolean free(long cycle, long resources) {
+			return cycle >= end || (slots[(int)cycle & mask] & resources) == 0;
+		}
+		
+		// book()
+		// Given a cycle at or after start, marks the given resources as occupied at that cycle, growing the ring if the cycle does not fit.
+		void book(long cycle, long resources) {
+			if (cycle-start >= slots.length) {
+				long[] grown = new long[slots.length*2];
+				int grownMask = grown.length-1;
+				for (long c = start; c < end; c++) {
+					grown[(int)c & grownMask] = slots[(int)c & mask];
+				}
+				slots = grown;
+				mask = grownMask;
+			}
+			slots[(int)cycle & mask] |= resources;
+			end = Math.max(end, cycle+1);
+		}
+		
+		// shift()
+		// Moves every booking from the given cycle on by the given number of cycles later, forgetting the bookings before that cycle.
+		void shift(long from, long by) {
+			long[] shifted = new long[slots.length];
+			for (long c = Math.max(start, from); c < end; c++) {
+				shifted[(int)(c+by) & mask] = slots[(int)c & mask];
+			}
+			slots = shifted;
+			start = Math.max(start, from)+by;
+			end = Math.max(end, start-by)+by;
+		}
+		
+		// save()
+		// Writes the held cycles and their bookings, for restore().
+		void save(DataOutputStream out) throws IOException {
+			out.writeLong(start);
+			out.writeLong(end);
+			for (long c = start; c < end; c++) {
+				out.writeLong(slots[(int)c & mask]);
+			}
+		}
+		
+		void restore(DataInputStream in) throws IOException {
+			start = in.readLong();
+			end = in.readLong();
+			slots = new long[Math.max(64, Integer.highestOneBit((int)(end-start)) << 1)];
+			mask = slots.length-1;
+			for (long c = start; c < end; c++) {
+				slots[(int)c & mask] = in.readLong();
+			}
+		}
+		
+		// release()
+		// Forgets every booking before the given cycle. Their slots are cleared so the ring can reuse them for later cycles.
+		void release(long cycle) {
+			for (long c = start; c < Math.min(cycle, end); c++) {
+				slots[(int)c & mask] = 0;
+			}
+			start = Math.max(start, cycle);
+			end = Math.max(end, start);
 		}
-		System.out.println("\nFinal values in int registers:");
-		for (int i = 0; i < R.length; i++) {
-			System.out.println("$"+i+" -> "+R[i]);
+	}
+	
+	static final int MAX_COPIES = Long.SIZE / STAGES.length; // The most copies of one stage a ReservationTable mask has bits for
+	
+	// resource()
+	// Given a stage, returns its bit in a ReservationTable mask, or the bit of the given copy of it.
+	static long resource(stage s) {
+		return resource(s, 0);
+	}
+	
+	static long resource(stage s, int copy) {
+		return 1L << (copy*STAGES.length + s.ordinal());
+	}
+	
+	// LoopMemo
+	// The timing of one loop iteration, recorded from one time a backward branch was taken until the next time. The signature is the
+	// pipeline state relative to the cycle the branch started fetching, so two equal signatures for the same branch mean the iteration
+	// in between started and ended in the same state, and every later iteration that follows the same path will take exactly as long.
+	// A memo is started again at each back edge, so it is only allocated once for as long as a loop keeps running.
+	static final class LoopMemo {
+		static final int MAX_PATH = 4096; // Longer iterations are not memoized
+		
+		int branch; // The index of the backward branch
+		long[] signature; // The signature is held in its first signatureLength values
+		int signatureLength;
+		long fetch; // The cycle the branch started fetching, and the counts of the simulation when it was taken
+		long count;
+		long stalls;
+		final long[] stallsByCause;
+		final long[] busyCycles;
+		final long[] issueCycles;
+		int rowStart; // The index in the timeline of the first row of the iteration
+		int[] path = new int[64]; // The index of each instruction the iteration ran, in order, and its stall cycles
+		int[] pathStalls = new int[64];
+		int pathLength = 0;
+		
+		LoopMemo(int causes, int units, int issues) {
+			this.stallsByCause = new long[causes];
+			this.busyCycles = new long[units];
+			this.issueCycles = new long[issues];
 		}
-		System.out.println("\nFinal values in memory:");
-		for (int i = 0; i < memory.length; i++) {
-			System.out.println("Address "+i+" -> "+memory[i]);
+		
+		// start()
+		// Starts recording an iteration from a back edge, copying the counts so far and taking the given signature array. Returns the
+		// signature array it held before, or null, for the next signature to be computed into.
+		long[] start(int branch, long[] signature, int signatureLength, long fetch, long count, long stalls, long[] stallsByCause,
+				long[] busyCycles, long[] issueCycles, int rowStart) {
+			long[] previous = this.signature;
+			this.branch = branch;
+			this.signature = signature;
+			this.signatureLength = signatureLength;
+			this.fetch = fetch;
+			this.count = count;
+			this.stalls = stalls;
+			System.arraycopy(stallsByCause, 0, this.stallsByCause, 0, stallsByCause.length);
+			System.arraycopy(busyCycles, 0, this.busyCycles, 0, busyCycles.length);
+			System.arraycopy(issueCycles, 0, this.issueCycles, 0, issueCycles.length);
+			this.rowStart = rowStart;
+			this.pathLength = 0;
+			return previous;
 		}
+		
+		// add()
+		// Appends an instruction index and its stall cycles to the path, returning false once the iteration is too long to memoize.
+		boolean add(int i, int stalls) {
+			if (pathLength == MAX_PATH)
+				return false;
+			if (pathLength == path.length) {
+				path = Arrays.copyOf(path, pathLength*2);
+				pathStalls = Arrays.copyOf(pathStalls, pathLength*2);
+			}
+			pathStalls[pathLength] = stalls;
+			path[pathLength++] = i;
+			return true;
+		}
+	}
+	
+	// Simulator
+	// Pipelines one Program from an initial memory image under a Config. All state of the simulation lives in the instance,
+	// so separate simulators can run at the same time on different threads. Each simulator is meant to be run once.
+	static final class Simulator {
+		final Program program;
+		final Config config;
+		final boolean recordTimeline; // Whether run() keeps a Row for every dynamic instruction
+		TimelineRenderer renderer = null; // Where rows are rendered as they complete instead of being kept, if set
+		
+		final Memory memory;
+		
+		// Register arrays; a register that was never written reads as 0
+		final int[] R = new int[32]; // Integer registers $0 through $31
+		final float[] FP = new float[32]; // Floating point registers F0 through F31
+		
+		// One bit per register, set once that register has been written, so that printResults() can still show unwritten registers as null
+		int writtenR = 0;
+		int writtenFP = 0;
+		
+		// Structural hazards are checked against every in-flight instruction through the reservation table. Instructions are still pipelined
+		// one at a time in program order, each from the cycle its predecessor started fetching, and book every resource they occupy.
+		final ReservationTable table = new ReservationTable();
+		long lastFetch = 0; // The cycle the PREVIOUS instruction started fetching
+		long lastMemEntry = -1; // The cycle the most recent instruction that used MEM entered it, since instructions enter MEM in order
+		
+		int[] currInstruction = new int[64]; // The states at each cycle for the instruction that is CURRENTLY being pipelined
+		long currStart = -1; // The cycle the current instruction started fetching
+		int currLength = 0; // The number of cycles recorded in currInstruction
+		
+		boolean stall = false; // Whether the current instruction was kept in its stage at the last cycle
+		boolean wrongPath = false; // Whether the current instruction was fetched down a mispredicted path, so it must change nothing
+		
+		static final long NEVER = Long.MAX_VALUE; // The squash cycle of an instruction on the correct path
+		static final int CHECKPOINT_MAGIC = 0x4D43434B; // "MCCK"
+		static final int CHECKPOINT_VERSION = 2;
+		static final int DRAIN = 1 << 12; // The number of kept rows at which a simulator with a renderer renders them
+		
+		List<Row> timeline; // Every Row so far, or only the rows not rendered yet, or null if the timeline is not recorded
+		long cycles = 0; // The number of cycles until the last completion so far
+		long count = 0; // The number of dynamic instructions pipelined so far
+		long stalls = 0; // The number of instruction-cycles displayed as a stall so far
+		final long[] stallsByCause = new long[STAGES.length+1]; // Stall cycles by cause, indexed like Result.stallsByCause
+		final long[] stallsByInstruction; // Stall cycles by static instruction, or null for a streamed Program
+		final long[] busyCycles = new long[STAGES.length]; // Booked cycles of each functional unit and MEM, indexed by stage ordinal
+		int stallCause; // The cause of the last stall of the current instruction, indexed like stallsByCause
+		int currStalls; // The stall cycles of the current instruction so far
+		
+		// The register scoreboard: the first cycle an instruction reading each register can start executing, given the forwarding paths
+		// of the Config. Since instructions are pipelined one at a time in program order, every producer has finished by the time the
+		// instructions that read its result are pipelined. FP registers keep a separate cycle for FP unit readers, for FP->FP forwarding.
+		final long[] readyR = new long[32];
+		final long[] readyFP = new long[32];
+		final long[] readyFPUnit = new long[32];
+		long currReady; // The first cycle the current instruction can start executing, once all its source registers are ready
+		long currMemEntry; // The cycle the current instruction entered MEM
+		int currMemLatency; // The MEM cycles of the current instruction, known once it enters MEM
+		int currCopy; // The copy of the stage the current instruction is in
+		
+		// Instructions issue from ID to their units in order, so the issue counts are kept by finishing a cycle once a later one issues
+		long issueCycle = -1; // The cycle the most recent instruction issued
+		int issued = 0; // The instructions issued in that cycle so far
+		final long[] issueCycles; // Finished cycles by the number of instructions issued in them
+		
+		final Cache cache; // The L1 cache, or null if it is not modeled
+		final Predictor predictor; // The branch predictor, or null if every branch is fetched down the correct path
+		final long[] branchesByInstruction; // Executions of each static branch, or null if there is no predictor or the Program is streamed
+		final long[] correctByInstruction; // Correctly predicted executions of each static branch
+		final long[] accessesByInstruction; // Cache accesses by static instruction, or null if there is no cache or the Program is streamed
+		final long[] hitsByInstruction;
+		
+		LoopMemo loop = null; // The iteration being recorded since the most recent backward branch was taken, if any
+		long[] scratch = new long[256]; // Where signature() puts the pipeline state at each back edge
+		
+		// A back edge whose iterations keep failing to fast-forward, such as one alternating between two paths, is left alone for twice
+		// as many of its iterations after each failure, so memoizing it costs little when it never pays off
+		static final int MAX_BACK_OFF = 12; // Back-off stops doubling at 1 << MAX_BACK_OFF iterations
+		int backOffBranch = -1; // The backward branch that last failed to fast-forward, if any
+		int backOffFailures = 0; // Its failures since it last fast-forwarded
+		int backOffSkips = 0; // Its iterations left before it is memoized again
+		
+		int start = 0; // The index of the instruction run() starts at, which is not the first one after restore()
+		Path checkpoint = null; // Where checkpoints are saved, if anywhere
+		long checkpointEvery = 0; // The cycles between checkpoints, or 0 for none until stopAt
+		long nextCheckpoint = Long.MAX_VALUE; // The fetch cycle from which the next periodic checkpoint is saved
+		long stopAt = Long.MAX_VALUE; // The dynamic instructions after which a checkpoint is saved and run() stops
+		boolean stopped = false; // Whether run() stopped at stopAt instead of running past the last instruction
+		
+		// The region of interest: only the instructions in it are pipelined, and the others are executed without timing
+		String detailFrom = null; // The label or index of the instruction the region starts at, or null to start after detailSkip
+		long detailSkip = 0; // The dynamic instructions executed before the region can start
+		String detailTo = null; // The label or index of the instruction the region ends at, or null to run until detailLimit
+		long detailLimit = Long.MAX_VALUE; // The dynamic instructions pipelined before the region ends
+		long functional = 0; // The dynamic instructions executed without timing so far
+		
+		// Undo information for one fast-forwarded iteration, so it can be taken back if it leaves the memoized path
+		final int[] savedR = new int[32];
+		final float[] savedFP = new float[32];
+		int savedWrittenR;
+		int savedWrittenFP;
+		int[] journal = new int[64]; // Pairs of memory address and old value, for every store of the iteration
+		int journalLength = 0;
+		boolean journaling = false;
+		
+		Simulator(Program program, int[] memory, Config config, boolean recordTimeline) {
+			this(program, Memory.of(memory), config, recordTimeline);
+		}
+		
+		// The simulator works on its own copy of the initial memory, so one image can be shared by any number of simulators
+		Simulator(Program program, Memory memory, Config config, boolean recordTimeline) {
+			this.program = program;
+			this.memory = memory.copy();
+			this.config = config;
+			this.recordTimeline = recordTimeline;
+			this.stallsByInstruction = program.streamed() ? null : new long[program.size()];
+			this.issueCycles = new long[config.width+1];
+			this.cache = config.cache ? new Cache(config) : null;
+			this.predictor = config.predictor.equals("perfect") ? null : new Predictor(config);
+			this.branchesByInstruction = predictor == null || program.streamed() ? null : new long[program.size()];
+			this.correctByInstruction = branchesByInstruction == null ? null : new long[program.size()];
+			this.accessesByInstruction = cache == null || program.streamed() ? null : new long[program.size()];
+			this.hitsByInstruction = accessesByInstruction == null ? null : new long[program.size()];
+		}
+		
+		// renderTo()
+		// Makes run() render each row of the timeline through the given renderer soon after it completes, keeping only the rows of the
+		// loop iteration being memoized, instead of returning the whole timeline.
+		Simulator renderTo(TimelineRenderer renderer) {
+			this.renderer = renderer;
+			return this;
+		}
+		
+		// checkpointTo()
+		// Makes run() save a checkpoint to the given file once every given number of cycles, if it is not 0, and after the given number
+		// of dynamic instructions, where it stops. Each checkpoint replaces the previous one.
+		Simulator checkpointTo(Path file, long everyCycles, long stopAfter) {
+			this.checkpoint = file;
+			this.checkpointEvery = everyCycles;
+			this.nextCheckpoint = everyCycles == 0 ? Long.MAX_VALUE : (lastFetch/everyCycles+1)*everyCycles;
+			this.stopAt = stopAfter;
+			return this;
+		}
+		
+		// regionOfInterest()
+		// Makes run() execute the program without timing it until the given number of dynamic instructions have run and then, if a
+		// label or index to start from is given, until that instruction is reached. From there it pipelines the program until the
+		// instruction at the label or index to end at, if any, is reached again, or until the given number of instructions have been
+		// pipelined, and executes the rest without timing. The cache and predictor, if modeled, are warmed up before the region but only
+		// counted inside it.
+		Simulator regionOfInterest(String from, long skip, String to, long limit) {
+			for (String where : new String[] {from, to}) {
+				if (where != null && !program.streamed() && (locate(where) < 0 || locate(where) >= program.size()))
+					throw new IllegalArgumentException("There is no label or instruction \""+where+"\" in the program.");
+			}
+			this.detailFrom = from;
+			this.detailSkip = skip;
+			this.detailTo = to;
+			this.detailLimit = limit;
+			return this;
+		}
+		
+		// run()
+		// Pipelines every dynamic instruction in order, starting with the first one or the one a checkpoint was saved before, until the
+		// program runs past its last instruction or a checkpoint stops it. Instructions outside the region of interest are only executed.
+		Result run() {
+			timeline = recordTimeline ? new ArrayList<Row>() : null;
+			
+			int i = count == 0 ? warmUp(start) : start;
+			int end = -1; // The index the region of interest ends at, once detailTo is located
+			int labelsRead = -1; // The number of labels defined when detailTo was last looked for
+			while (program.contains(i)) {
+				if (end < 0 && detailTo != null && program.labels.size() != labelsRead) {
+					labelsRead = program.labels.size();
+					end = locate(detailTo); // A label further on in a streamed Program is only defined once it has been read
+				}
+				if (count >= detailLimit || count > 0 && i == end)
+					break; // The region of interest ends here
+				
+				pipeline(i, NEVER);
+				if (timeline != null)
+					timeline.add(new Row(program.line(i), currStart, Arrays.copyOf(currInstruction, currLength)));
+				cycles = Math.max(cycles, currStart+currLength);
+				count++;
+				if (stallsByInstruction != null)
+					stallsByInstruction[i] += currStalls;
+				lastFetch = currStart;
+				
+				if (loop != null && !loop.add(i, currStalls))
+					loop = null;
+				if (renderer != null && timeline.size() >= DRAIN)
+					drain(loop == null ? timeline.size() : loop.rowStart);
+				
+				int from = i;
+				boolean taken = taken(program.instruction(i));
+				if (taken) {
+					i = program.instruction(i).target;
+				} else {
+					i++;
+				}
+				if (predictor != null && program.instruction(from).op.isBranch())
+					predict(from, taken, currStart+currLength-1);
+				
+				if (i <= from && config.fastForward && cache == null && predictor == null && !DEBUG)
+					backEdge(from, i);
+				
+				if (DEBUG)
+					System.out.println("Next i value: "+(i+1)+"\n");
+				
+				if (count >= stopAt || lastFetch >= nextCheckpoint) {
+					save(i);
+					nextCheckpoint = checkpointEvery == 0 ? Long.MAX_VALUE : (lastFetch/checkpointEvery+1)*checkpointEvery;
+					if (count >= stopAt) {
+						stopped = true;
+						break;
+					}
+				}
+			}
+			while (!stopped && program.contains(i)) {
+				i = execute(i);
+				functional++;
+			}
+			
+			if (renderer != null) {
+				drain(timeline.size());
+				timeline = null;
+			}
+			long[] issues = issueCycles.clone();
+			if (issued > 0)
+				issues[issued]++;
+			issues[0] = cycles;
+			for (int n = 1; n < issues.length; n++) {
+				issues[0] -= issues[n];
+			}
+			return new Result(timeline, R.clone(), FP.clone(), writtenR, writtenFP, memory, cycles, count, stalls,
+				program, stallsByCause.clone(), stallsByInstruction == null ? null : stallsByInstruction.clone(), busyCycles.clone(),
+				config.count.clone(), issues, cache, accessesByInstruction == null ? null : accessesByInstruction.clone(),
+				hitsByInstruction == null ? null : hitsByInstruction.clone(), predictor,
+				branchesByInstruction == null ? null : branchesByInstruction.clone(), correctByInstruction == null ? null : correctByInstruction.clone(),
+				functional);
+		}
+		
+		// warmUp()
+		// Given the index of the first instruction, executes instructions without timing them until the region of interest starts, and
+		// returns the index of the first one to pipeline. The cache and predictor counts start over there.
+		int warmUp(int i) {
+			if (detailSkip == 0 && detailFrom == null)
+				return i;
+			int from = -1;
+			int labelsRead = -1; // The number of labels defined when detailFrom was last looked for
+			while (program.contains(i)) {
+				if (from < 0 && detailFrom != null && program.labels.size() != labelsRead) {
+					labelsRead = program.labels.size();
+					from = locate(detailFrom); // A label further on in a streamed Program is only defined once it has been read
+				}
+				if (functional >= detailSkip && (detailFrom == null || i == from))
+					break;
+				i = warm(i);
+				functional++;
+			}
+			if (cache != null) {
+				cache.hits = 0;
+				cache.misses = 0;
+				cache.evictions = 0;
+			}
+			if (predictor != null) {
+				predictor.branches = 0;
+				predictor.mispredictions = 0;
+				predictor.squashed = 0;
+			}
+			return i;
+		}
+		
+		// warm()
+		// Runs the instruction at the given index like execute(), but first looks up the word a load or store accesses in the cache and
+		// trains the predictor with a branch, if they are modeled, so they hold what they would when the timing starts.
+		int warm(int i) {
+			Instruction inst = program.instruction(i);
+			if (cache != null && inst.op.isMemory())
+				cache.access(address(inst), inst.op.isStore());
+			if (predictor != null && inst.op.isBranch()) {
+				boolean taken = taken(inst);
+				predictor.update(i, inst.target, inst.op == operator.J, taken);
+				return taken ? inst.target : i+1;
+			}
+			return execute(i);
+		}
+		
+		// locate()
+		// Given a label, or the index of an instruction counting from 0, returns that index, or -1 if the label is not defined, or not
+		// read yet in a streamed Program. Labels never start with a digit.
+		int locate(String where) {
+			if (where == null || where.isEmpty())
+				return -1;
+			if (Character.isDigit(where.charAt(0))) {
+				try {
+					return Integer.parseInt(where);
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+			Integer label = program.labels.get(where);
+			return label == null ? -1 : label;
+		}
+		
+		// pipeline()
+		// Given the index of an instruction, pipelines it from the cycle before its predecessor started fetching until it completes, or
+		// until the end of the given cycle if it is squashed first, leaving its cells in currInstruction. Returns false if it was squashed.
+		// The stalls of a squashed instruction are displayed but not counted.
+		boolean pipeline(int i, long squash) {
+			// The first instruction starts at IF instead of idle; every other one waits from the cycle before its predecessor started
+			// fetching, since a wide machine can fetch both in the same cycle
+			int currStage = count == 0 ? state(stage.IF, 0) : state(stage.idle, 0);
+			long currCycle = count == 0 ? lastFetch : lastFetch-1;
+			currCopy = 0;
+			currStart = -1;
+			currLength = 0;
+			currStalls = 0;
+			currReady = ready(program.instruction(i));
+			stall = false;
+			wrongPath = squash != NEVER;
+			table.release(lastFetch); // No instruction from here on can look at an earlier cycle
+			do {
+				if (currCycle > squash)
+					return false;
+				
+				if (DEBUG)
+					System.out.print("Cycle "+currCycle+" - current stage: "+stateName(currStage)+"; reserved: "+Long.toBinaryString(table.free(currCycle, -1L) ? 0 : table.slots[(int)currCycle & table.mask]));
+				
+				if (currStart < 0 && stageOf(currStage) != stage.idle)
+					currStart = currCycle;
+				if (currStart >= 0) {
+					book(currStage, currCycle);
+					if (stall) {
+						record(currStage | Row.STALLED);
+						if (squash == NEVER) {
+							stalls++;
+							stallsByCause[stallCause]++;
+							currStalls++;
+						}
+					} else
+						record(currStage);
+				}
+				
+				currStage = updateStage(currStage, program.instruction(i).op, currCycle, i);
+				if (DEBUG)
+					System.out.println("; updated cycle: "+stateName(currStage)+"; stall="+stall);
+				currCycle++;
+					
+			} while (currStage != COMPLETE);
+			return true;
+		}
+		
+		// predict()
+		// Given a branch that was just pipelined, whether it was taken and the cycle it was resolved in (its last EX cycle), predicts it
+		// from what the predictor knew when it was fetched, and leaves its outcome to train the predictor once that cycle has passed. On a
+		// misprediction, the instructions on the predicted path are fetched behind the branch and squashed at the end of that cycle, and
+		// the correct path is only fetched the penalty's number of cycles later.
+		void predict(int branch, boolean taken, long resolved) {
+			Instruction inst = program.instruction(branch);
+			predictor.resolve(currStart);
+			int predicted = predictor.predict(branch, inst);
+			predictor.defer(branch, inst, taken, resolved);
+			predictor.branches++;
+			boolean correct = predicted == (taken ? inst.target : branch+1);
+			if (branchesByInstruction != null) {
+				branchesByInstruction[branch]++;
+				if (correct)
+					correctByInstruction[branch]++;
+			}
+			if (correct)
+				return;
+			
+			predictor.mispredictions++;
+			for (int w = predicted; program.contains(w); w++) {
+				pipeline(w, resolved);
+				if (currStart < 0)
+					break; // Nothing else was fetched before the branch resolved
+				record(COMPLETE | Row.SQUASHED);
+				if (timeline != null)
+					timeline.add(new Row(program.line(w), currStart, Arrays.copyOf(currInstruction, currLength)));
+				predictor.squashed++;
+				lastFetch = currStart;
+			}
+			lastFetch = Math.max(lastFetch, resolved+config.branchPenalty);
+		}
+		
+		// save()
+		// Given the index of the next instruction to pipeline, writes everything that decides the rest of the simulation to the checkpoint
+		// file: the registers, memory, counts, scoreboard, reservation table, cache and predictor. The rows so far are rendered first, and
+		// the loop being memoized is forgotten, which only costs speed, so the saving and the restoring simulation go on the same way.
+		// The file is written next to the checkpoint and then moved over it, so a simulation stopped while saving keeps the last one.
+		void save(int next) {
+			if (renderer != null)
+				drain(timeline.size());
+			loop = null;
+			Path temporary = checkpoint.resolveSibling(checkpoint.getFileName()+".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+				out.writeInt(CHECKPOINT_MAGIC);
+				out.writeInt(CHECKPOINT_VERSION);
+				out.writeUTF(config.describe());
+				out.writeLong(fingerprint());
+				out.writeInt(next);
+				out.writeLong(lastFetch);
+				out.writeLong(lastMemEntry);
+				out.writeLong(cycles);
+				out.writeLong(count);
+				out.writeLong(stalls);
+				out.writeLong(issueCycle);
+				out.writeInt(issued);
+				out.writeInt(writtenR);
+				out.writeInt(writtenFP);
+				for (int r = 0; r < 32; r++) {
+					out.writeInt(R[r]);
+					out.writeInt(Float.floatToRawIntBits(FP[r]));
+				}
+				writeLongs(out, readyR);
+				writeLongs(out, readyFP);
+				writeLongs(out, readyFPUnit);
+				writeLongs(out, stallsByCause);
+				writeLongs(out, stallsByInstruction);
+				writeLongs(out, busyCycles);
+				writeLongs(out, issueCycles);
+				writeLongs(out, accessesByInstruction);
+				writeLongs(out, hitsByInstruction);
+				writeLongs(out, branchesByInstruction);
+				writeLongs(out, correctByInstruction);
+				table.save(out);
+				memory.save(out);
+				if (cache != null)
+					cache.save(out);
+				if (predictor != null)
+					predictor.save(out);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			try {
+				Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		// restore()
+		// Given a checkpoint file saved by a simulation of the same program under the same configuration, puts this simulator, which
+		// has not run yet, in the state it was saved in, so that run() goes on exactly as that simulation did.
+		Simulator restore(Path file) throws IOException {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+				if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION)
+					throw new IllegalArgumentException(file+" is not a checkpoint of this simulator");
+				if (!in.readUTF().equals(config.describe()))
+					throw new IllegalArgumentException("The checkpoint was saved under a different pipeline.properties");
+				if (in.readLong() != fingerprint())
+					throw new IllegalArgumentException("The checkpoint was saved for a different program");
+				start = in.readInt();
+				lastFetch = in.readLong();
+				lastMemEntry = in.readLong();
+				cycles = in.readLong();
+				count = in.readLong();
+				stalls = in.readLong();
+				issueCycle = in.readLong();
+				issued = in.readInt();
+				writtenR = in.readInt();
+				writtenFP = in.readInt();
+				for (int r = 0; r < 32; r++) {
+					R[r] = in.readInt();
+					FP[r] = Float.intBitsToFloat(in.readInt());
+				}
+				readLongs(in, readyR);
+				readLongs(in, readyFP);
+				readLongs(in, readyFPUnit);
+				readLongs(in, stallsByCause);
+				readLongs(in, stallsByInstruction);
+				readLongs(in, busyCycles);
+				readLongs(in, issueCycles);
+				readLongs(in, accessesByInstruction);
+				readLongs(in, hitsByInstruction);
+				readLongs(in, branchesByInstruction);
+				readLongs(in, correctByInstruction);
+				table.restore(in);
+				memory.restore(in);
+				if (cache != null)
+					cache.restore(in);
+				if (predictor != null)
+					predictor.restore(in);
+			} catch (EOFException e) {
+				throw new IllegalArgumentException(file+" is not a complete checkpoint");
+			}
+			return this;
+		}
+		
+		// fingerprint()
+		// Returns a checksum of the text of every instruction, or -1 for a streamed Program, which cannot be read ahead to check.
+		long fingerprint() {
+			if (program.streamed())
+				return -1;
+			java.util.zip.CRC32 checksum = new java.util.zip.CRC32();
+			for (int i = 0; i < program.size(); i++) {
+				checksum.update(program.line(i).getBytes(StandardCharsets.UTF_8));
+				checksum.update('\n');
+			}
+			return checksum.getValue();
+		}
+		
+		// drain()
+		// Renders the given number of oldest rows of the timeline and forgets them.
+		void drain(int rows) {
+			try {
+				for (int r = 0; r < rows; r++) {
+					renderer.render(timeline.get(r));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			timeline.subList(0, rows).clear();
+			if (loop != null)
+				loop.rowStart -= Math.min(rows, loop.rowStart);
+		}
+		
+		// backEdge()
+		// Given a backward branch that was just taken and its target, fast-forwards through the loop if the iteration that just ended
+		// started in the same pipeline state, then starts recording the next iteration, unless the branch is backing off.
+		void backEdge(int branch, int target) {
+			if (branch == backOffBranch && backOffSkips > 0) {
+				backOffSkips--;
+				loop = null;
+				return;
+			}
+			
+			int length = signature();
+			if (loop != null && loop.branch == branch) {
+				boolean repeated = Arrays.equals(loop.signature, 0, loop.signatureLength, scratch, 0, length) && fastForward(loop, target) > 0;
+				if (branch != backOffBranch) {
+					backOffBranch = branch;
+					backOffFailures = 0;
+				}
+				if (repeated) {
+					backOffFailures = 0;
+				} else {
+					backOffSkips = 1 << Math.min(backOffFailures, MAX_BACK_OFF);
+					backOffFailures++;
+				}
+			}
+			
+			if (loop == null)
+				loop = new LoopMemo(stallsByCause.length, busyCycles.length, issueCycles.length);
+			long[] previous = loop.start(branch, scratch, length, lastFetch, count, stalls, stallsByCause, busyCycles, issueCycles,
+				timeline == null ? 0 : timeline.size());
+			scratch = previous == null ? new long[scratch.length] : previous;
+		}
+		
+		// signature()
+		// Puts the pipeline state that decides the timing of the following instructions into scratch and returns its length. The state
+		// is relative to the cycle the last one started fetching: when MEM was last entered, when the last completion is, when the last
+		// issue was and how many issued then, when each register is ready, and every booking in the reservation table from that cycle on.
+		// Any cycle up to lastFetch allows the same timing afterwards, so it counts as 0, except that an earlier last issue counts as -1
+		// since its issue count is still pending.
+		int signature() {
+			long end = Math.max(table.end, lastFetch);
+			int length = (int)(end-lastFetch)+4+3*32;
+			if (scratch.length < length)
+				scratch = new long[Math.max(length, scratch.length*2)];
+			long[] signature = scratch;
+			signature[0] = Math.max(lastMemEntry-lastFetch, 0);
+			signature[1] = cycles-lastFetch;
+			signature[2] = Math.max(issueCycle-lastFetch, -1);
+			signature[3] = issued;
+			for (int r = 0; r < 32; r++) {
+				signature[4+r] = Math.max(readyR[r]-lastFetch, 0);
+				signature[4+32+r] = Math.max(readyFP[r]-lastFetch, 0);
+				signature[4+64+r] = Math.max(readyFPUnit[r]-lastFetch, 0);
+			}
+			for (long c = lastFetch; c < end; c++) {
+				signature[(int)(c-lastFetch)+4+3*32] = table.slots[(int)c & table.mask];
+			}
+			return length;
+		}
+		
+		// fastForward()
+		// Given a memoized iteration that ended in the state it started in, runs the effects of each following iteration on registers and
+		// memory without pipelining it, for as long as it follows the same path back to the target. Every such iteration adds the same
+		// cycles, instructions, stalls and (shifted) timeline rows as the memoized one. The first iteration that leaves the path is taken
+		// back, so it is pipelined normally from the same state. Returns the number of iterations fast-forwarded.
+		long fastForward(LoopMemo memo, int target) {
+			long delta = lastFetch-memo.fetch;
+			Row[] rows = timeline == null ? null : timeline.subList(memo.rowStart, timeline.size()).toArray(new Row[0]);
+			long iterations = 0;
+			
+			journaling = true;
+			while ((iterations+1)*(count-memo.count) <= Math.min(stopAt, detailLimit)-count && iteration(memo, target)) {
+				iterations++;
+				if (rows != null) {
+					for (Row row : rows) {
+						timeline.add(new Row(row.text, row.start+iterations*delta, row.cells));
+					}
+					if (renderer != null && timeline.size() >= DRAIN)
+						drain(timeline.size());
+				}
+			}
+			journaling = false;
+			
+			if (iterations > 0) {
+				long shift = iterations*delta;
+				table.shift(lastFetch, shift);
+				lastFetch += shift;
+				lastMemEntry = Math.max(lastMemEntry+shift, table.start-1);
+				issueCycle += shift;
+				cycles += shift;
+				count += iterations*(count-memo.count);
+				stalls += iterations*(stalls-memo.stalls);
+				for (int c = 0; c < stallsByCause.length; c++) {
+					stallsByCause[c] += iterations*(stallsByCause[c]-memo.stallsByCause[c]);
+				}
+				for (int u = 0; u < STAGES.length; u++) {
+					busyCycles[u] += iterations*(busyCycles[u]-memo.busyCycles[u]);
+				}
+				for (int n = 0; n < issueCycles.length; n++) {
+					issueCycles[n] += iterations*(issueCycles[n]-memo.issueCycles[n]);
+				}
+				for (int r = 0; r < 32; r++) {
+					readyR[r] += shift;
+					readyFP[r] += shift;
+					readyFPUnit[r] += shift;
+				}
+				for (int k = 0; stallsByInstruction != null && k < memo.pathLength; k++) {
+					stallsByInstruction[memo.path[k]] += iterations*memo.pathStalls[k];
+				}
+			}
+			return iterations;
+		}
+		
+		// iteration()
+		// Runs the register and memory effects of one iteration of the memoized path. Returns true if every branch went the same way as
+		// in the memo, or takes the whole iteration back and returns false otherwise.
+		boolean iteration(LoopMemo memo, int target) {
+			System.arraycopy(R, 0, savedR, 0, R.length);
+			System.arraycopy(FP, 0, savedFP, 0, FP.length);
+			savedWrittenR = writtenR;
+			savedWrittenFP = writtenFP;
+			journalLength = 0;
+			
+			for (int k = 0; k < memo.pathLength; k++) {
+				int next = k+1 < memo.pathLength ? memo.path[k+1] : target;
+				if (execute(memo.path[k]) != next) {
+					undo();
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		// execute()
+		// Runs the register and memory effects of the instruction at the given index without pipelining it, and returns the index of the
+		// instruction that follows it.
+		int execute(int i) {
+			Instruction inst = program.instruction(i);
+			if (inst.op.isBranch())
+				return taken(inst) ? inst.target : i+1;
+			storeMem(inst);
+			return i+1;
+		}
+		
+		// undo()
+		// Restores the registers and memory saved at the start of the current fast-forwarded iteration.
+		void undo() {
+			System.arraycopy(savedR, 0, R, 0, R.length);
+			System.arraycopy(savedFP, 0, FP, 0, FP.length);
+			writtenR = savedWrittenR;
+			writtenFP = savedWrittenFP;
+			for (int j = journalLength-2; j >= 0; j -= 2) {
+				memory.store(journal[j], journal[j+1]);
+			}
+			journalLength = 0;
+		}
+		
+		// write()
+		// Stores a value at a memory address, remembering the old value while fast-forwarding so the store can be taken back.
+		void write(int address, int value) {
+			if (journaling) {
+				if (journalLength == journal.length)
+					journal = Arrays.copyOf(journal, journalLength*2);
+				journal[journalLength++] = address;
+				journal[journalLength++] = memory.load(address);
+			}
+			memory.store(address, value);
+		}
+		
+		// record()
+		// Appends the given state to the history of the instruction currently being pipelined.
+		void record(int state) {
+			if (currLength == currInstruction.length)
+				currInstruction = Arrays.copyOf(currInstruction, currLength*2);
+			currInstruction[currLength++] = state;
+		}
+		
+		// book()
+		// Given the current instruction's state at a cycle, books the resource it occupies in the reservation table.
+		// IF, ID and WB are always booked. A functional unit or MEM that is pipelined is only booked at the cycle an instruction enters it,
+		// while one that is not pipelined is booked for every cycle an instruction spends in it, including stalls.
+		void book(int s, long cycle) {
+			stage current = stageOf(s);
+			switch (current) {
+			case IF:
+			case ID:
+			case WB:
+				table.book(cycle, resource(current, currCopy));
+				break;
+			
+			case EX:
+			case A:
+			case M:
+			case D:
+			case MEM:
+				if (!config.pipelined[current.ordinal()] || stepOf(s) == 0) {
+					table.book(cycle, resource(current, currCopy));
+					if (!wrongPath)
+						busyCycles[current.ordinal()]++;
+				}
+				break;
+			
+			default:
+				break;
+			}
+		}
+		
+		// issue()
+		// Counts an instruction issuing at the given cycle, which is never before the previous issue.
+		void issue(long cycle) {
+			if (cycle != issueCycle) {
+				if (issued > 0)
+					issueCycles[issued]++;
+				issueCycle = cycle;
+				issued = 0;
+			}
+			issued++;
+		}
+		
+		// freeCopy()
+		// Given a functional unit or MEM and a cycle, returns the first copy of it that is not booked at that cycle, or -1 if none is free.
+		int freeCopy(stage unit, long cycle) {
+			for (int copy = 0; copy < config.count[unit.ordinal()]; copy++) {
+				if (table.free(cycle, resource(unit, copy)))
+					return copy;
+			}
+			return -1;
+		}
+		
+		// updateStage()
+		// Given the current instruction's state, location and operator, and the current cycle number, checks the reservation table at the
+		// next cycle for a stall and returns the current instruction's NEXT state in the pipeline.
+		
+		int updateStage(int s, operator o, long currCycle, int i) {
+			long next = currCycle+1;
+			stage current = stageOf(s);
+			int newStage;
+			int copy; // A free copy of the unit the instruction moves into
+			stall = false;
+			switch(current) {
+			case idle: // All instructions remain unused until IF is available, and never fetch before their predecessor
+				if (next >= lastFetch && (copy = freeCopy(stage.IF, next)) >= 0) {
+					currCopy = copy;
+					newStage = state(stage.IF, 0);
+				} else
+					newStage = s;
+				break;
+			
+			case IF: // Instruction fetching stalls until ID is available
+				if ((copy = freeCopy(stage.ID, next)) >= 0) {
+					currCopy = copy;
+					newStage = state(stage.ID, 0);
+				} else {
+					stall = true;
+					stallCause = stage.ID.ordinal();
+					newStage = s;
+				}
+				break;
+				
+			case ID: // Instruction decoding stalls until every source register can be read or forwarded,
+				// and then until the correct TYPE of execution is available (Integer, Mult, Add, or Div)
+				// In a wide machine, it also stalls until every earlier instruction has issued
+				if (next < currReady) {
+					stall = true;
+					stallCause = Result.DATA_HAZARD;
+					newStage = s;
+				} else if (next < issueCycle) {
+					stall = true;
+					stallCause = stage.ID.ordinal();
+					newStage = s;
+				} else if ((copy = freeCopy(o.unit, next)) >= 0) {
+					currCopy = copy;
+					newStage = state(o.unit, 0);
+					if (!wrongPath)
+						issue(next);
+				} else {
+					stall = true;
+					stallCause = o.unit.ordinal();
+					newStage = s;
+				}
+				break;
+				
+			// Execution moves through its unit one cycle at a time. For load/store and arithmetic operations,
+			// execution stalls on the LAST cycle until MEM is available
+			
+			case EX:
+			case A:
+			case M:
+			case D:
+				if (stepOf(s) < config.latency[current.ordinal()]-1) {
+					newStage = state(current, stepOf(s)+1);
+				} else if (o.isBranch()) {
+					newStage = COMPLETE;
+				} else if (next >= lastMemEntry && (copy = freeCopy(stage.MEM, next)) >= 0) {
+					currCopy = copy;
+					newStage = state(stage.MEM, 0);
+					currMemEntry = next;
+					if (wrongPath) {
+						currMemLatency = config.memLatency(o); // Squashed before it could touch the cache
+					} else {
+						lastMemEntry = next;
+						currMemLatency = memLatency(program.instruction(i), i);
+					}
+				} else {
+					stall = true;
+					stallCause = stage.MEM.ordinal();
+					newStage = s;
+				}
+				break;
+			
+			// Memory access only stalls if WB is still taken when a pipelined MEM lets a shorter access catch up with a longer one, or
+			// until the instruction is squashed if it is on a mispredicted path, so that it never writes memory or a register
+				
+			case MEM: // Stay in MEM for the memory latency of the operator, then access memory and move to WB
+				if (stepOf(s) < currMemLatency-1)
+					newStage = state(stage.MEM, stepOf(s)+1);
+				else if (wrongPath) {
+					stall = true;
+					stallCause = stage.WB.ordinal();
+					newStage = s;
+				} else if ((copy = freeCopy(stage.WB, next)) >= 0) {
+					currCopy = copy;
+					storeMem(program.instruction(i));
+					produce(program.instruction(i), currMemEntry-1, currCycle, next);
+					newStage = state(stage.WB, 0);
+				} else {
+					stall = true;
+					stallCause = stage.WB.ordinal();
+					newStage = s;
+				}
+				break;
+				
+			default: // Writing back completes the pipeline
+				newStage = COMPLETE;
+				break;
+			}
+			return newStage;
+		}
+		
+		// ready()
+		// Given an instruction, returns the first cycle it can start executing with every source register it reads.
+		long ready(Instruction inst) {
+			switch (inst.op) {
+			case LD:
+			case LW:
+				return inst.addrReg ? readyR[inst.t] : 0;
+			case SD:
+				return Math.max(readyFP[inst.d], inst.addrReg ? readyR[inst.t] : 0);
+			case SW:
+				return Math.max(readyR[inst.d], inst.addrReg ? readyR[inst.t] : 0);
+			case ADDI:
+				return readyR[inst.s];
+			case ADD:
+			case SUB:
+				return Math.max(readyR[inst.s], readyR[inst.t]);
+			case ADD_D:
+			case SUB_D:
+			case MUL_D:
+			case DIV_D:
+				return Math.max(readyFPUnit[inst.s], readyFPUnit[inst.t]);
+			case BEQ:
+			case BNE:
+				return Math.max(readyR[inst.d], readyR[inst.s]);
+			default: // LI and J read no register
+				return 0;
+			}
+		}
+		
+		// produce()
+		// Given an instruction that is entering WB, the last cycle it spent in its unit, the last cycle it spent in MEM and its WB cycle,
+		// marks when its destination register can be read. Without forwarding, a reader can be in ID during WB, since the register file is
+		// written in the first half of the cycle and read in the second, and start executing the cycle after. EX->EX lets an integer result
+		// reach EX the cycle after it is computed, MEM->EX lets any result (including a loaded value) reach EX the cycle after MEM, and
+		// FP->FP lets an FP result reach another FP unit the cycle after it is computed.
+		void produce(Instruction inst, long unitEnd, long memEnd, long writeBack) {
+			long ready = writeBack+1;
+			if (config.forwardMEM)
+				ready = Math.min(ready, memEnd+1);
+			switch (inst.op) {
+			case LI:
+			case ADDI:
+			case ADD:
+			case SUB:
+				readyR[inst.d] = config.forwardEX ? Math.min(ready, unitEnd+1) : ready;
+				break;
+			case LW:
+				readyR[inst.d] = ready;
+				break;
+			case LD:
+				readyFP[inst.d] = ready;
+				readyFPUnit[inst.d] = ready;
+				break;
+			case ADD_D:
+			case SUB_D:
+			case MUL_D:
+			case DIV_D:
+				readyFP[inst.d] = ready;
+				readyFPUnit[inst.d] = config.forwardFP ? Math.min(ready, unitEnd+1) : ready;
+				break;
+			default: // Stores write no register
+				break;
+			}
+		}
+		
+		// memLatency()
+		// Given an instruction entering MEM and its index, returns its MEM cycles: those of its operator without a cache, or else those of
+		// its cache access, counted for its static instruction.
+		int memLatency(Instruction inst, int i) {
+			if (cache == null || !inst.op.isMemory())
+				return config.memLatency(inst.op);
+			
+			long hits = cache.hits;
+			int latency = cache.access(address(inst), inst.op.isStore());
+			if (accessesByInstruction != null) {
+				accessesByInstruction[i]++;
+				hitsByInstruction[i] += cache.hits-hits;
+			}
+			return latency;
+		}
+		
+		// address()
+		// Given a load or store, returns the memory address it accesses with the current registers.
+		int address(Instruction inst) {
+			if (inst.op.isStore())
+				return inst.imm + (inst.addrReg ? R[inst.t] : inst.t);
+			return inst.addrReg ? R[inst.t] : inst.imm+inst.t;
+		}
+		
+		// storeMem()
+		// Given the current decoded instruction, uses its operands to store a value in the destination.
+		
+		void storeMem(Instruction inst) {
+			int d = inst.d;
+			int Is;
+			int It;
+			float Fs;
+			float Ft;
+		
+			switch (inst.op) {
+		
+			case LD:
+				Is = inst.imm;
+			
+				if (inst.addrReg) { // If addr is a register, Fd = offset + $addr
+					It = memory.load(R[inst.t]);
+					FP[d] = (float)Is + (float)It;
+				} else { // If addr is a memory address, Fd = memory[offset + addr]
+					It = inst.t;
+					FP[d] = (float)memory.load(Is+It);
+				}
+				writtenFP |= 1 << d;
+			
+				if (DEBUG) {
+					System.out.print("\nMEM3 called: d = "+d+"; offset = "+Is+"; addr = "+It+"; value stored = "+FP[d]);
+				}
+			
+				break;
+			
+			case SD: // For S.D, memory[offset + $addr] = Fd
+				Is = inst.imm;
+			
+				It = inst.addrReg ? R[inst.t] : inst.t;
+			
+				write(Is+It, Math.round(FP[d]));
+			
+				break;
+			
+			case LI: // For LI, $d = imm
+				R[d] = inst.imm;
+				writtenR |= 1 << d;
+				break;
+			
+			case LW:
+				Is = inst.imm;
+			
+				if (inst.addrReg) { // If addr is a register, $d = offset + $addr
+					It = memory.load(R[inst.t]);
+					R[d] = Is + It;
+				} else { // If addr is a memory address, $d = memory[offset + addr]
+					It = inst.t;
+					R[d] = memory.load(Is+It);
+				}
+				writtenR |= 1 << d;
+			
+				break;
+		
+			case SW: // For SW, memory[offset + $addr] = $d
+				Is = inst.imm;
+			
+				It = inst.addrReg ? R[inst.t] : inst.t;
+			
+				write(Is + It, R[d]);
+			
+				break;
+		
+			case ADD: // For ADD, $d = $s + $t
+				Is = R[inst.s];
+				It = R[inst.t];
+				R[d] = Is + It;
+				writtenR |= 1 << d;
+				break;
+		
+			case ADDI: // For ADDI, $d = $s + imm
+				Is = R[inst.s];
+				R[d] = Is + inst.imm;
+				writtenR |= 1 << d;
+				break;
+		
+			case ADD_D: // For ADD.D, Fd = Fs + Ft
+				Fs = FP[inst.s];
+				Ft = FP[inst.t];
+				FP[d] = Fs + Ft;
+				writtenFP |= 1 << d;
+				break;
+		
+			case SUB: // For SUB, $d = $s - $t
+				Is = R[inst.s];
+				It = R[inst.t];
+				R[d] = Is - It;
+				writtenR |= 1 << d;
+				break;
+		
+			case SUB_D: // For SUB.D, Fd = Fs - Ft
+				Fs = FP[inst.s];
+				Ft = FP[inst.t];
+				FP[d] = Fs - Ft;
+				writtenFP |= 1 << d;
+				break;
+		
+			case MUL_D: // For MUL.D, Fd = Fs * Ft
+				Fs = FP[inst.s];
+				Ft = FP[inst.t];
+				FP[d] = Fs * Ft;
+				writtenFP |= 1 << d;
+				break;
+			
+			case DIV_D: // For DIV.D, Fd = Fs / Ft
+				Fs = FP[inst.s];
+				Ft = FP[inst.t];
+				FP[d] = Fs / Ft;
+				writtenFP |= 1 << d;
+				break;
+			
+			default:
+				throw new IllegalStateException("Branch instructions should not store any memory.");
+			}
+		}
+		
+		// taken()
+		// Given the current decoded instruction, determines whether a branch is being called when that instruction's pipeline is complete.
+		boolean taken(Instruction inst) {
+		
+			switch (inst.op) {
+		
+			case J: // // For J (unconditional jump), branch is ALWAYS taken
+				return true;
+			
+			case BEQ: // For BEQ, if registers $s and $t point to the same value, the branch is taken
+				return R[inst.d] == R[inst.s];
+			
+			case BNE: // For BNE, if registers $s and $t point to the different values, the branch is taken
+				return R[inst.d] != R[inst.s];
+		
+			default:
+				break;
+			}
+		
+			return false; // For different operators or an unfulfilled BEQ/BNE condition, move onto the next instruction
+		}
+	}
+	
+	// Tomasulo
+	// An out-of-order engine for the same Program and Config, to compare against the in-order pipeline. Up to the width of instructions
+	// are dispatched each cycle, in order, into the reorder buffer and a reservation station of their unit, and their source registers are
+	// renamed to the reorder buffer entries that produce them. An instruction starts executing on any free copy of its unit once every
+	// source has been broadcast on a common data bus, loads and stores then access MEM (a load after the latest earlier store to the same
+	// address), results are broadcast in age order on the free buses, and completed instructions commit in order, up to the width each
+	// cycle. The registers and memory are updated by the storeMem() and taken() of a Simulator as each instruction is dispatched, so the
+	// dispatched path is always the correct one, as it is for the in-order pipeline, and the final state is the same.
+	static final class Tomasulo {
+		final Program program;
+		final Config config;
+		final Simulator state; // The registers and memory, which are never pipelined
+		final Cache cache; // The L1 cache, or null if it is not modeled
+		
+		final ArrayDeque<Entry> rob = new ArrayDeque<Entry>(); // The reorder buffer, oldest first
+		final Entry[] producer = new Entry[64]; // The uncommitted entry writing each register ($n at n, Fn at 32+n), or null
+		final Map<Integer, Entry> lastStore = new HashMap<Integer, Entry>(); // The latest uncommitted store to each address
+		final int[] stations = new int[STAGES.length]; // Occupied reservation stations of each unit, indexed by stage ordinal
+		final long[][] unitFree = new long[STAGES.length][]; // The first cycle each copy of each unit can accept an instruction
+		
+		long cycles = 0;
+		long instructions = 0;
+		long robFull = 0; // Cycles dispatch stopped because the reorder buffer was full
+		long stationsFull = 0; // Cycles dispatch stopped because the reservation stations of a unit were full
+		
+		// Entry
+		// One dispatched instruction, from its reservation station to its reorder buffer entry. Cycles are -1 until they happen.
+		static final class Entry {
+			final Instruction inst;
+			final Entry[] sources; // The entries producing its source registers when it was dispatched
+			final int destination; // The register it writes, numbered like producer, or -1
+			final int address; // The memory address of a load or store
+			final Entry store; // The latest earlier store to the same address, for a load
+			final long dispatch;
+			long execute = -1; // The first cycle in its unit
+			long executed = -1; // The last cycle in its unit, or in MEM for a load or store
+			boolean inMem = false;
+			long broadcast = -1; // The cycle its result was on a common data bus
+			long complete = -1; // The cycle it finished in, after which it can commit
+			
+			Entry(Instruction inst, Entry[] sources, int destination, int address, Entry store, long dispatch) {
+				this.inst = inst;
+				this.sources = sources;
+				this.destination = destination;
+				this.address = address;
+				this.store = store;
+				this.dispatch = dispatch;
+			}
+			
+			// ready()
+			// Determines whether every source of the entry was broadcast before the given cycle.
+			boolean ready(long cycle) {
+				for (Entry source : sources) {
+					if (source != null && (source.broadcast < 0 || source.broadcast >= cycle))
+						return false;
+				}
+				return true;
+			}
+		}
+		
+		Tomasulo(Program program, Memory memory, Config config) {
+			this.program = program;
+			this.config = config;
+			this.state = new Simulator(program, memory, config, false);
+			this.cache = config.cache ? new Cache(config) : null;
+			for (stage unit : Config.UNITS) {
+				unitFree[unit.ordinal()] = new long[config.count[unit.ordinal()]];
+			}
+		}
+		
+		// run()
+		// Simulates every dynamic instruction, starting with the first one, until the program runs past its last instruction and every
+		// dispatched instruction has committed. Returns the number of cycles taken.
+		long run() {
+			int i = 0;
+			long cycle = 0;
+			while (program.contains(i) || !rob.isEmpty()) {
+				commit(cycle);
+				execute(cycle);
+				broadcast(cycle);
+				i = dispatch(i, cycle);
+				cycle++;
+			}
+			cycles = cycle;
+			return cycles;
+		}
+		
+		// cpi()
+		// Returns the average number of cycles per dynamic instruction, or 0 for a program that ran no instructions.
+		double cpi() {
+			return instructions == 0 ? 0 : (double)cycles / instructions;
+		}
+		
+		// commit()
+		// Retires completed entries from the head of the reorder buffer, in order and up to the width.
+		void commit(long cycle) {
+			for (int n = 0; n < config.width && !rob.isEmpty(); n++) {
+				Entry head = rob.peekFirst();
+				if (head.complete < 0 || head.complete >= cycle)
+					return;
+				rob.pollFirst();
+				if (head.destination >= 0 && producer[head.destination] == head)
+					producer[head.destination] = null;
+				if (head.inst.op.isStore() && lastStore.get(head.address) == head)
+					lastStore.remove(head.address);
+				instructions++;
+			}
+		}
+		
+		// broadcast()
+		// Puts the results of the oldest entries that finish executing by the end of the given cycle on the free common data buses, so
+		// the entries waiting for them can start executing in the next cycle.
+		void broadcast(long cycle) {
+			int buses = config.buses;
+			for (Entry entry : rob) {
+				if (buses == 0)
+					return;
+				if (entry.broadcast < 0 && entry.executed >= 0 && entry.executed <= cycle && entry.destination >= 0
+						&& (entry.inMem || !entry.inst.op.isMemory())) {
+					entry.broadcast = cycle;
+					entry.complete = cycle;
+					buses--;
+				}
+			}
+		}
+		
+		// execute()
+		// Starts every entry whose operands are ready on a free copy of its unit, oldest first, and moves loads and stores that have
+		// computed their address into a free MEM copy.
+		void execute(long cycle) {
+			for (Entry entry : rob) {
+				operator o = entry.inst.op;
+				if (entry.execute < 0) {
+					if (entry.dispatch >= cycle || !entry.ready(cycle))
+						continue;
+					int copy = freeCopy(o.unit, cycle);
+					if (copy < 0)
+						continue;
+					occupy(o.unit, copy, cycle, config.latency[o.unit.ordinal()]);
+					stations[o.unit.ordinal()]--;
+					entry.execute = cycle;
+					entry.executed = cycle+config.latency[o.unit.ordinal()]-1;
+					if (o.isBranch())
+						entry.complete = entry.executed;
+				} else if (o.isMemory() && !entry.inMem && entry.executed < cycle) {
+					if (entry.store != null && (entry.store.complete < 0 || entry.store.complete >= cycle))
+						continue;
+					int copy = freeCopy(stage.MEM, cycle);
+					if (copy < 0)
+						continue;
+					int latency = cache == null ? config.memLatency(o) : cache.access(entry.address, o.isStore());
+					occupy(stage.MEM, copy, cycle, latency);
+					entry.inMem = true;
+					entry.executed = cycle+latency-1;
+					if (o.isStore())
+						entry.complete = entry.executed;
+				}
+			}
+		}
+		
+		// dispatch()
+		// Given the index of the next instruction on the program's path, moves up to the width of instructions into the reorder buffer
+		// and their reservation stations, running their effects on the registers and memory. Returns the index of the next instruction
+		// still to dispatch.
+		int dispatch(int i, long cycle) {
+			for (int n = 0; n < config.width && program.contains(i); n++) {
+				Instruction inst = program.instruction(i);
+				if (rob.size() == config.robSize) {
+					robFull++;
+					break;
+				}
+				if (stations[inst.op.unit.ordinal()] == config.stations) {
+					stationsFull++;
+					break;
+				}
+				
+				int[] reads = sources(inst);
+				Entry[] sources = new Entry[reads.length];
+				for (int r = 0; r < reads.length; r++) {
+					sources[r] = producer[reads[r]];
+				}
+				int address = inst.op.isMemory() ? state.address(inst) : 0;
+				Entry store = inst.op.isMemory() && !inst.op.isStore() ? lastStore.get(address) : null;
+				Entry entry = new Entry(inst, sources, destination(inst), address, store, cycle);
+				
+				rob.addLast(entry);
+				stations[inst.op.unit.ordinal()]++;
+				if (entry.destination >= 0)
+					producer[entry.destination] = entry;
+				if (inst.op.isStore())
+					lastStore.put(address, entry);
+				i = state.execute(i);
+			}
+			return i;
+		}
+		
+		// freeCopy()
+		// Given a functional unit or MEM and a cycle, returns the first copy of it that can accept an instruction then, or -1 if none can.
+		int freeCopy(stage unit, long cycle) {
+			long[] free = unitFree[unit.ordinal()];
+			for (int copy = 0; copy < free.length; copy++) {
+				if (free[copy] <= cycle)
+					return copy;
+			}
+			return -1;
+		}
+		
+		// occupy()
+		// Marks a copy of a unit as taken by an instruction entering it at the given cycle for the given number of cycles: until it
+		// leaves, or only for that cycle if the unit is pipelined.
+		void occupy(stage unit, int copy, long cycle, int latency) {
+			unitFree[unit.ordinal()][copy] = config.pipelined[unit.ordinal()] ? cycle+1 : cycle+latency;
+		}
+		
+		// sources()
+		// Given an instruction, returns the registers it reads, numbered like producer.
+		static int[] sources(Instruction inst) {
+			switch (inst.op) {
+			case LD:
+			case LW:
+				return inst.addrReg ? new int[] {inst.t} : new int[0];
+			case SD:
+				return inst.addrReg ? new int[] {32+inst.d, inst.t} : new int[] {32+inst.d};
+			case SW:
+				return inst.addrReg ? new int[] {inst.d, inst.t} : new int[] {inst.d};
+			case ADDI:
+				return new int[] {inst.s};
+			case ADD:
+			case SUB:
+				return new int[] {inst.s, inst.t};
+			case ADD_D:
+			case SUB_D:
+			case MUL_D:
+			case DIV_D:
+				return new int[] {32+inst.s, 32+inst.t};
+			case BEQ:
+			case BNE:
+				return new int[] {inst.d, inst.s};
+			default: // LI and J read no register
+				return new int[0];
+			}
+		}
+		
+		// destination()
+		// Given an instruction, returns the register it writes, numbered like producer, or -1 if it writes none.
+		static int destination(Instruction inst) {
+			switch (inst.op) {
+			case LI:
+			case ADDI:
+			case ADD:
+			case SUB:
+			case LW:
+				return inst.d;
+			case LD:
+			case ADD_D:
+			case SUB_D:
+			case MUL_D:
+			case DIV_D:
+				return 32+inst.d;
+			default: // Stores and branches write no register
+				return -1;
+			}
+		}
+	}
+	
+	public static void main(String[] args) {
+		Config config = Config.load(CONFIG_FILE); // Load functional unit latencies, keeping the defaults if there is no config file
+		
+		// Any file or directory arguments switch to batch mode, which prints no timelines
+		String output = null;
+		String stats = null;
+		boolean timeline = true;
+		boolean stream = false;
+		boolean tomasulo = false;
+		String image = null;
+		String checkpoint = null;
+		String restore = null;
+		String grid = null;
+		String from = null;
+		String to = null;
+		long skip = 0;
+		long detail = Long.MAX_VALUE;
+		long every = 0;
+		long until = Long.MAX_VALUE;
+		List<String> paths = new ArrayList<String>();
+		for (int a = 0; a < args.length; a++) {
+			if (args[a].equals("-o") && a+1 < args.length)
+				output = args[++a];
+			else if (args[a].equals("--assemble") && a+2 < args.length) {
+				assemble(args[a+1], args[a+2]);
+				return;
+			}
+			else if (args[a].equals("--stats") && a+1 < args.length)
+				stats = args[++a];
+			else if (args[a].equals("--no-timeline"))
+				timeline = false;
+			else if (args[a].equals("--stream"))
+				stream = true;
+			else if (args[a].equals("--tomasulo"))
+				tomasulo = true;
+			else if (args[a].equals("--checkpoint") && a+1 < args.length)
+				checkpoint = args[++a];
+			else if (args[a].equals("--restore") && a+1 < args.length)
+				restore = args[++a];
+			else if (args[a].equals("--sweep") && a+1 < args.length)
+				grid = args[++a];
+			else if (args[a].equals("--from") && a+1 < args.length)
+				from = args[++a];
+			else if (args[a].equals("--to") && a+1 < args.length)
+				to = args[++a];
+			else if ((args[a].equals("--every") || args[a].equals("--until") || args[a].equals("--skip") || args[a].equals("--detail")) && a+1 < args.length) {
+				long value = 0;
+				try {
+					value = Long.parseLong(args[a+1]);
+				} catch (NumberFormatException e) {
+				}
+				if (value < 1) {
+					System.out.println(args[a]+" needs a whole number of at least 1, not \""+args[a+1]+"\".");
+					System.exit(0);
+				}
+				if (args[a].equals("--every"))
+					every = value;
+				else if (args[a].equals("--until"))
+					until = value;
+				else if (args[a].equals("--skip"))
+					skip = value;
+				else
+					detail = value;
+				a++;
+			}
+			else if (args[a].equals("--memory") && a+1 < args.length)
+				image = args[++a];
+			else if (args[a].startsWith("-")) {
+				System.out.println("Usage: java MulticyclePipeline.java [--no-timeline] [--stream] [--tomasulo] [--memory image.txt] [--stats stats.json|stats.csv] [-o summary.csv] [file or directory ...]");
+				System.out.println("       java MulticyclePipeline.java [--restore saved.ckpt] [--checkpoint saved.ckpt [--every cycles] [--until instructions]] ...");
+				System.out.println("       java MulticyclePipeline.java [--skip instructions] [--from label|index] [--to label|index] [--detail instructions] ...");
+				System.out.println("       java MulticyclePipeline.java --sweep grid.properties [--tomasulo] [--memory image.txt] [-o sweep.csv] file or directory ...");
+				System.out.println("       java MulticyclePipeline.java --assemble program.txt program.bin");
+				System.exit(0);
+			} else
+				paths.add(args[a]);
+		}
+		if (!paths.isEmpty() && stats != null) {
+			System.out.println("--stats can only be used for one program, without any file or directory argument.");
+			System.exit(0);
+		}
+		if (!paths.isEmpty() && (checkpoint != null || restore != null)) {
+			System.out.println("--checkpoint and --restore can only be used for one program, without any file or directory argument.");
+			System.exit(0);
+		}
+		if (checkpoint == null && (every != 0 || until != Long.MAX_VALUE)) {
+			System.out.println("--every and --until need a --checkpoint file to save to.");
+			System.exit(0);
+		}
+		boolean region = from != null || to != null || skip != 0 || detail != Long.MAX_VALUE;
+		if (region && (!paths.isEmpty() || checkpoint != null || restore != null || tomasulo)) {
+			System.out.println("--skip, --from, --to and --detail can only be used for one program, without any file or directory argument,"
+				+" and cannot be combined with --checkpoint, --restore or --tomasulo.");
+			System.exit(0);
+		}
+		if (grid != null && (paths.isEmpty() || stream || stats != null || checkpoint != null || restore != null)) {
+			System.out.println("--sweep needs a file or directory argument, and cannot be combined with --stream, --stats, --checkpoint or --restore.");
+			System.exit(0);
+		}
+		Memory memory = loadMemory(image); // The default memory values, unless an image file is given
+		if (grid != null) {
+			runSweep(grid, paths, output, tomasulo, memory);
+			return;
+		}
+		if (!paths.isEmpty()) {
+			runBatch(paths, output, config, stream, tomasulo, memory);
+			return;
+		}
+		
+		Program program = loadProgram(stream);
+		
+		if (DEBUG && !program.streamed()) {
+			for (int i = 0; i < program.size(); i++) {
+				System.out.println(program.instruction(i));
+			}
+			System.out.println();
+		}
+		
+		// The timeline is displayed while the program is simulated, so its rows are never all kept at once
+		TimelineRenderer renderer = timeline ? new TimelineRenderer(new OutputStreamWriter(System.out)) : null;
+		if (timeline && config.width > 1)
+			renderer.countIssues();
+		Simulator simulator = new Simulator(program, memory, config, timeline);
+		if (restore != null) {
+			try {
+				simulator.restore(Paths.get(restore));
+			} catch (IOException e) {
+				System.out.println("Could not read the checkpoint "+restore+". Try running the simulator again.");
+				System.exit(0);
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+				System.exit(0);
+			}
+		}
+		if (checkpoint != null)
+			simulator.checkpointTo(Paths.get(checkpoint), every, until);
+		if (region) {
+			try {
+				simulator.regionOfInterest(from, skip, to, detail);
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+				System.exit(0);
+			}
+		}
+		Result result = null;
+		try {
+			result = timeline ? simulator.renderTo(renderer).run() : simulator.run();
+		} catch (IllegalArgumentException | IllegalStateException e) { // A streamed program can only be found wrong while it runs
+			System.out.println();
+			System.out.println(e.getMessage());
+			System.exit(0);
+		} catch (UncheckedIOException e) {
+			System.out.println();
+			System.out.println(checkpoint == null ? "Could not display the timeline." : "Could not write the checkpoint "+checkpoint+". Try running the simulator again.");
+			System.exit(0);
+		}
+		if (simulator.stopped) {
+			try {
+				if (timeline)
+					renderer.flush();
+			} catch (IOException e) {
+				System.out.println("Could not display the timeline.");
+			}
+			System.out.println();
+			System.out.println("Stopped after "+simulator.count+" instructions. Checkpoint saved to "+checkpoint+"; continue with --restore "+checkpoint+".");
+			return;
+		}
+		
+		if (timeline) {
+			try {
+				if (config.width > 1)
+					renderer.renderIssues();
+				renderer.flush();
+			} catch (IOException e) {
+				System.out.println("Could not display the timeline.");
+			}
+			System.out.println();
+		}
+		
+		result.printSummary();
+		System.out.println();
+		if (tomasulo) {
+			compareTomasulo(program, memory, config, result);
+			System.out.println();
+		}
+		result.printResults();
+		
+		if (stats != null) {
+			try (Writer out = Files.newBufferedWriter(Paths.get(stats))) {
+				if (stats.endsWith(".json"))
+					result.writeJson(out);
+				else
+					result.writeCsv(out);
+			} catch (IOException e) {
+				System.out.println("Could not write "+stats+". Try running the simulator again.");
+				System.exit(0);
+			}
+		}
+	}
+	
+	// loadMemory()
+	// Given the name of a memory image file, or null, returns the initial memory of every simulation.
+	static Memory loadMemory(String filename) {
+		if (filename == null)
+			return Memory.of(DEFAULT_MEMORY);
+		try {
+			return Memory.read(Paths.get(filename));
+		} catch (NoSuchFileException e) {
+			System.out.println("Memory image "+filename+" not found. Try running the simulator again.");
+		} catch (IOException e) {
+			System.out.println("Could not read "+filename+". Try running the simulator again.");
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+		System.exit(0);
+		return null;
+	}
+	
+	// assemble()
+	// Given a text file and the name of a binary file, decodes the text file and writes its Program to the binary file, so later runs
+	// can map it instead of parsing it again.
+	static void assemble(String source, String binary) {
+		try {
+			Program program = sortInstructions(Files.readAllLines(Paths.get(source)));
+			program.assemble(Paths.get(binary));
+			System.out.println("Assembled "+program.size()+" instructions into "+binary+".");
+		} catch (NoSuchFileException e) {
+			System.out.println("File not found. Try running the simulator again.");
+		} catch (IOException e) {
+			System.out.println("Could not assemble "+source+" into "+binary+". Try running the simulator again.");
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+	
+	// runBatch()
+	// Given program files and directories (searched recursively for .txt and .bin files), simulates every program in parallel on a work-stealing
+	// pool and writes one CSV summary line per program, in argument order, to the output file or to the console if there is none.
+	static void runBatch(List<String> paths, String output, Config config, boolean stream, boolean tomasulo, Memory memory) {
+		List<Path> files = listPrograms(paths);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		List<ForkJoinTask<String>> summaries = new ArrayList<ForkJoinTask<String>>();
+		for (Path file : files) {
+			summaries.add(pool.submit(() -> summarize(file, config, stream, tomasulo, memory)));
+		}
+		
+		try (Writer out = output == null ? new BufferedWriter(new OutputStreamWriter(System.out)) : Files.newBufferedWriter(Paths.get(output))) {
+			out.write("program,cycles,instructions,cpi,stall_cycles,"+(tomasulo ? "tomasulo_cycles,tomasulo_cpi," : "")+"error\n");
+			for (ForkJoinTask<String> summary : summaries) {
+				out.write(summary.join());
+				out.write('\n');
+			}
+		} catch (IOException e) {
+			System.out.println("Could not write "+output+". Try running the simulator again.");
+			System.exit(0);
+		}
+		if (output != null)
+			System.out.println("Simulated "+files.size()+" programs. Summary written to "+output+".");
+	}
+	
+	// listPrograms()
+	// Given file and directory arguments, returns each file, and each .txt or .bin file found in each directory, in order.
+	static List<Path> listPrograms(List<String> paths) {
+		List<Path> files = new ArrayList<Path>();
+		for (String name : paths) {
+			Path path = Paths.get(name);
+			if (Files.isDirectory(path)) {
+				try (java.util.stream.Stream<Path> found = Files.walk(path)) {
+					found.filter(f -> Files.isRegularFile(f) && (f.toString().endsWith(".txt") || f.toString().endsWith(".bin"))).sorted().forEach(files::add);
+				} catch (IOException e) {
+					System.out.println("Could not read directory "+name+". Try running the simulator again.");
+					System.exit(0);
+				}
+			} else
+				files.add(path);
+		}
+		return files;
+	}
+	
+	// runSweep()
+	// Given a grid file listing comma-separated values for pipeline.properties keys, simulates each program under every combination
+	// of those values, applied over pipeline.properties, and writes one CSV line per program and combination to the output file, or
+	// displays them. Each program is read and decoded once and shared by all of its runs, which run in parallel on the common fork-join
+	// pool, each with its own registers, memory, cache and predictor.
+	static void runSweep(String grid, List<String> paths, String output, boolean tomasulo, Memory memory) {
+		if (!new File(grid).exists()) {
+			System.out.println("Grid file "+grid+" not found. Try running the simulator again.");
+			System.exit(0);
+		}
+		Properties values = Config.read(grid);
+		List<String> keys = new ArrayList<String>(values.stringPropertyNames());
+		Collections.sort(keys);
+		List<String[]> choices = new ArrayList<String[]>();
+		long combinations = 1;
+		for (String key : keys) {
+			String[] choice = values.getProperty(key).split(",", -1);
+			for (int c = 0; c < choice.length; c++) {
+				choice[c] = choice[c].trim();
+				if (choice[c].isEmpty()) {
+					System.out.println("Empty value for "+key+" in "+grid+"; separate the values to sweep with commas.");
+					System.exit(0);
+				}
+			}
+			choices.add(choice);
+			combinations *= choice.length;
+		}
+		if (combinations > SWEEP_LIMIT) {
+			System.out.println(grid+" has "+combinations+" combinations; at most "+SWEEP_LIMIT+" can be swept at once.");
+			System.exit(0);
+		}
+		
+		// Build every configuration first, so an invalid value stops the sweep before anything is simulated
+		Properties base = Config.read(CONFIG_FILE);
+		List<String> settings = new ArrayList<String>();
+		List<Config> configs = new ArrayList<Config>();
+		for (int n = 0; n < combinations; n++) {
+			Properties combination = new Properties();
+			combination.putAll(base);
+			StringBuilder setting = new StringBuilder();
+			int rest = n;
+			for (int k = keys.size()-1; k >= 0; k--) { // The last key changes fastest
+				String[] choice = choices.get(k);
+				combination.setProperty(keys.get(k), choice[rest % choice.length]);
+				setting.insert(0, ","+csv(choice[rest % choice.length]));
+				rest /= choice.length;
+			}
+			settings.add(setting.toString());
+			configs.add(Config.of(combination, grid));
+		}
+		
+		List<Path> files = listPrograms(paths);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		List<ForkJoinTask<String>> lines = new ArrayList<ForkJoinTask<String>>();
+		for (Path file : files) {
+			Program program = null;
+			String error = null;
+			try {
+				program = readProgram(file);
+				for (int i = 0; i < program.size(); i++) {
+					program.instruction(i); // Decode a mapped program up front rather than in every run
+				}
+			} catch (IOException | RuntimeException e) {
+				error = message(e);
+			}
+			for (int n = 0; n < configs.size(); n++) {
+				String name = csv(file.toString())+settings.get(n);
+				if (error != null) {
+					String failed = name+(tomasulo ? ",,,,,,," : ",,,,,")+",".repeat(Result.CAUSES.length)+csv(error);
+					lines.add(pool.submit(() -> failed));
+					continue;
+				}
+				Program shared = program;
+				Config config = configs.get(n);
+				lines.add(pool.submit(() -> sweepLine(name, shared, config, tomasulo, memory)));
+			}
+		}
+		
+		try (Writer out = output == null ? new BufferedWriter(new OutputStreamWriter(System.out)) : Files.newBufferedWriter(Paths.get(output))) {
+			out.write("program");
+			for (String key : keys) {
+				out.write(","+csv(key));
+			}
+			out.write(",cycles,instructions,cpi,stall_cycles,");
+			for (int cause : Result.CAUSES) {
+				out.write(csv(Result.causeName(cause))+",");
+			}
+			out.write((tomasulo ? "tomasulo_cycles,tomasulo_cpi," : "")+"error\n");
+			for (ForkJoinTask<String> line : lines) {
+				out.write(line.join());
+				out.write('\n');
+			}
+		} catch (IOException e) {
+			System.out.println("Could not write "+output+". Try running the simulator again.");
+			System.exit(0);
+		}
+		if (output != null)
+			System.out.println("Simulated "+files.size()+" programs under "+combinations+" configurations. Results written to "+output+".");
+	}
+	
+	// sweepLine()
+	// Given the start of a sweep line, naming the program and the swept values, simulates the program under one configuration and
+	// returns the line with its cycles, CPI and stall cycles by cause, and the out-of-order engine's cycles and CPI if asked to.
+	static String sweepLine(String name, Program program, Config config, boolean tomasulo, Memory memory) {
+		try {
+			Result result = new Simulator(program, memory, config, false).run();
+			StringBuilder line = new StringBuilder(name).append(',').append(result.cycles).append(',').append(result.instructions)
+				.append(',').append(String.format(Locale.ROOT, "%.4f", result.cpi())).append(',').append(result.stalls).append(',');
+			for (int cause : Result.CAUSES) {
+				line.append(result.stallsByCause[cause]).append(',');
+			}
+			if (tomasulo) {
+				Tomasulo engine = new Tomasulo(program, memory, config);
+				engine.run();
+				line.append(engine.cycles).append(',').append(String.format(Locale.ROOT, "%.4f", engine.cpi())).append(',');
+			}
+			return line.toString();
+		} catch (RuntimeException e) {
+			return name+(tomasulo ? ",,,,,,," : ",,,,,")+",".repeat(Result.CAUSES.length)+csv(message(e));
+		}
+	}
+	
+	// summarize()
+	// Given a program file, simulates it without a timeline, streaming its text if asked to, and returns its CSV summary line, with the
+	// cycles and CPI of the out-of-order engine too if asked to. A program that cannot be read or simulated gets a line with only its
+	// name and the error.
+	static String summarize(Path file, Config config, boolean stream, boolean tomasulo, Memory memory) {
+		try {
+			boolean streamed = stream && !file.toString().endsWith(".bin");
+			Program program = streamed ? Program.stream(file) : readProgram(file);
+			Result result = new Simulator(program, memory, config, false).run();
+			String line = csv(file.toString())+","+result.cycles+","+result.instructions+","
+				+String.format(Locale.ROOT, "%.4f", result.cpi())+","+result.stalls+",";
+			if (tomasulo) {
+				Tomasulo engine = new Tomasulo(streamed ? Program.stream(file) : program, memory, config); // A stream is only read once
+				engine.run();
+				line += engine.cycles+","+String.format(Locale.ROOT, "%.4f", engine.cpi())+",";
+			}
+			return line;
+		} catch (IOException | RuntimeException e) {
+			return csv(file.toString())+(tomasulo ? ",,,,,,," : ",,,,,")+csv(message(e));
+		}
+	}
+	
+	// compareTomasulo()
+	// Given a whole program and its in-order Result, runs the out-of-order engine on the same program and displays both side by side.
+	static void compareTomasulo(Program program, Memory memory, Config config, Result result) {
+		if (program.streamed()) {
+			System.out.println("The out-of-order engine reads the program again, so --tomasulo cannot be used with --stream here.");
+			return;
+		}
+		Tomasulo engine = new Tomasulo(program, memory, config);
+		engine.run();
+		System.out.println(String.format(Locale.ROOT, "%-14s%14s%14s", "", "In-order", "Tomasulo"));
+		System.out.println(String.format(Locale.ROOT, "%-14s%14d%14d", "Total cycles", result.cycles, engine.cycles));
+		System.out.println(String.format(Locale.ROOT, "%-14s%14.4f%14.4f", "CPI", result.cpi(), engine.cpi()));
+		System.out.println("Speedup: "+String.format(Locale.ROOT, "%.4f", engine.cycles == 0 ? 0 : (double)result.cycles / engine.cycles));
+		System.out.println("Dispatch stopped by a full reorder buffer: "+engine.robFull+" cycles; by full reservation stations: "
+			+engine.stationsFull+" cycles");
+	}
+	
+	// writeLongs()
+	// Writes an array of longs, or only -1 for null, so readLongs() can check it has the same length.
+	static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+		out.writeInt(values == null ? -1 : values.length);
+		for (int v = 0; values != null && v < values.length; v++) {
+			out.writeLong(values[v]);
+		}
+	}
+	
+	// readLongs()
+	// Reads an array written by writeLongs() into the given array, which must be as long, or null if the written one was.
+	static void readLongs(DataInputStream in, long[] values) throws IOException {
+		int length = in.readInt();
+		if (length != (values == null ? -1 : values.length))
+			throw new IllegalArgumentException("The checkpoint does not match this program and configuration");
+		for (int v = 0; v < length; v++) {
+			values[v] = in.readLong();
+		}
+	}
+	
+	// message()
+	// Returns the message of an error, as interactive mode displays it, or its name if it has none.
+	static String message(Exception e) {
+		if (e instanceof NoSuchFileException)
+			return "File not found";
+		return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+	}
+	
+	// csv()
+	// Quotes a value for a CSV line if it contains a comma, quote or line break.
+	static String csv(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+			return value;
+		return "\""+value.replace("\"", "\"\"")+"\"";
+	}
+	
+	// json()
+	// Returns a value as a quoted JSON string.
+	static String json(String value) {
+		StringBuilder quoted = new StringBuilder(value.length()+2).append('"');
+		for (int c = 0; c < value.length(); c++) {
+			char ch = value.charAt(c);
+			if (ch == '"' || ch == '\\')
+				quoted.append('\\').append(ch);
+			else if (ch < ' ')
+				quoted.append(String.format("\\u%04x", (int)ch));
+			else
+				quoted.append(ch);
+		}
+		return quoted.append('"').toString();
+	}
+	
+	// loadProgram()
+	// Given user input for the name of a text file, or of a binary file written by --assemble, returns its Program.
+	// A text file is streamed if asked to, instead of being read whole.
+	static Program loadProgram(boolean stream) {
+		// User inputs the name of the file with instructions
+		System.out.print("Enter the name of your text file (INCLUDE THE \".txt\" SUFFIX) ");
+		String filename = input.nextLine();
+		if (!filename.endsWith(".bin") && !stream) {
+			List<String> lines = loadInstructions(filename); // Load the raw text of each instruction, then decode each one once
+			try {
+				return sortInstructions(lines);
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+				System.out.println("Fix these lines and try running the simulator again.");
+				System.exit(0);
+			}
+		}
+		
+		try {
+			Program program = stream && !filename.endsWith(".bin") ? Program.stream(Paths.get(filename)) : Program.map(Paths.get(filename));
+			System.out.println("Instructions loaded successfully.\n");
+			return program;
+		} catch (NoSuchFileException e) {
+			System.out.println("File not found. Try running the simulator again.");
+		} catch (IOException e) {
+			System.out.println("Could not read "+filename+". Try running the simulator again.");
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage()+". Assemble it again and try running the simulator again.");
+		}
+		System.exit(0);
+		return null;
+	}
+	
+	// readProgram()
+	// Given a text file, or a binary file written by --assemble, returns its Program.
+	static Program readProgram(Path file) throws IOException {
+		if (file.toString().endsWith(".bin"))
+			return Program.map(file);
+		return sortInstructions(Files.readAllLines(file));
+	}
+	
+	// loadInstructions()
+	// Given the name of a text file, returns the raw text of each line of that text file using I/O.
+	static List<String> loadInstructions(String filename) {
+		Scanner infile = null;
+		
+		// Input validation, close the program if not valid
+		try { infile = new Scanner(new FileReader(filename)); }
+		catch (FileNotFoundException e) {
+			System.out.println("File not found. Try running the simulator again.");
+			System.exit(0); // Exit the program
+		}
+		
+		// Load each line in the file and convert it to an MIPS instruction
+		List<String> instructions = new ArrayList<String>();
+		while (infile.hasNextLine()) {
+			instructions.add(infile.nextLine());
+		}
+		infile.close();
+		System.out.println("Instructions loaded successfully.\n");
+		return instructions;
+	}
+	
+	
+	// sortInstructions()
+	// Given the raw text of each line, returns the Program made by decoding the layout of each loaded MIPS instruction.
+	// Any "label:" before an instruction, or alone on a line before it, is entered in a symbol table, and every branch target
+	// is resolved from that table once all lines are sorted. Blank lines are skipped. Every line that cannot be decoded, and every
+	// branch that cannot be resolved, is reported together in one exception, one line each.
+	static Program sortInstructions(List<String> instructions) {
+		List<String> lines = new ArrayList<String>();
+		List<Instruction> program = new ArrayList<Instruction>();
+		List<String> branchOperands = new ArrayList<String>(); // The label or number each branch continues at, null for other instructions
+		List<Integer> lineNumbers = new ArrayList<Integer>();
+		Parser parser = new Parser(new HashMap<String, Integer>());
+		for (int n = 0; n < instructions.size(); n++) {
+			Instruction inst = parser.parse(instructions.get(n), n+1, program.size());
+			if (inst == null)
+				continue;
+			lines.add(instructions.get(n));
+			program.add(inst);
+			branchOperands.add(parser.operand);
+			lineNumbers.add(n+1);
+		}
+		
+		// Branch targets only depend on the layout of the program, so each one is resolved once here instead of on every taken branch
+		for (int i = 0; i < program.size(); i++) {
+			if (branchOperands.get(i) == null)
+				continue;
+			try {
+				program.set(i, program.get(i).withTarget(branchIndex(program.get(i).op, branchOperands.get(i), i, parser.labels, program.size(), lineNumbers.get(i))));
+			} catch (IllegalArgumentException e) {
+				parser.errors.add(e.getMessage());
+			}
+		}
+		if (!parser.errors.isEmpty())
+			throw new IllegalArgumentException(String.join("\n", parser.errors));
+		return new Program(lines.toArray(new String[0]), program.toArray(new Instruction[0]), parser.labels);
+	}
+	
+	// branchIndex()
+	// Given a branch, its label or number operand and its index, returns the index of the instruction a taken branch continues at.
+	// A label continues at the instruction it is defined at. A number is an offset from the instruction after a BEQ/BNE, as in MIPS,
+	// or the index of the instruction to continue at for a J. Continuing right after the last instruction ends the program.
+	static int branchIndex(operator o, String operand, int i, Map<String, Integer> labels, int size, int lineNumber) {
+		int target;
+		if (labels.containsKey(operand))
+			target = labels.get(operand);
+		else {
+			try {
+				int number = Integer.parseInt(operand);
+				target = o == operator.J ? number : i+1+number;
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Undefined label \""+operand+"\" on line "+lineNumber);
+			}
+		}
+		if (target < 0 || target > size)
+			throw new IllegalArgumentException("Branch target "+operand+" on line "+lineNumber+" is outside the program");
+		return target;
+	}
+	
+	// stateName()
+	// Given a state, returns its stage name, followed by the cycle number within the stage for the numbered FP units (A1, M10, D40).
+	// Every cycle of MEM is simply called "MEM", since the extra cycles of L.D instructions are still part of the MEM stage.
+	static String stateName(int s) {
+		if (s == NO_STAGE)
+			return "none";
+		stage current = stageOf(s);
+		return current.numbered ? current.toString()+(stepOf(s)+1) : current.toString();
 	}
 }
@@ -0,0 +1,106 @@
+package pipeline.bench;
+
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+
+// Pipeline
+// Reaches the nested classes of MulticyclePipeline, which is in the default package and cannot be imported, through method handles
+// looked up once. A call through a method handle costs a few nanoseconds, far less than anything the benchmarks measure.
+final class Pipeline {
+	private static final MethodHandle SORT_INSTRUCTIONS;
+	private static final MethodHandle NEW_CONFIG;
+	private static final MethodHandle SET_FAST_FORWARD;
+	private static final MethodHandle NEW_SIMULATOR;
+	private static final MethodHandle RUN;
+	private static final MethodHandle CYCLES;
+	private static final MethodHandle INSTRUCTIONS;
+	private static final MethodHandle TIMELINE;
+	private static final MethodHandle NEW_RENDERER;
+	private static final MethodHandle RENDER;
+	private static final MethodHandle FLUSH;
+	private static final int[] DEFAULT_MEMORY;
+	
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			Class<?> main = Class.forName("MulticyclePipeline");
+			Class<?> program = Class.forName("MulticyclePipeline$Program");
+			Class<?> config = Class.forName("MulticyclePipeline$Config");
+			Class<?> simulator = Class.forName("MulticyclePipeline$Simulator");
+			Class<?> result = Class.forName("MulticyclePipeline$Result");
+			Class<?> renderer = Class.forName("MulticyclePipeline$TimelineRenderer");
+			
+			SORT_INSTRUCTIONS = lookup.unreflect(open(main.getDeclaredMethod("sortInstructions", List.class)));
+			NEW_CONFIG = lookup.unreflectConstructor(open(config.getDeclaredConstructor()));
+			SET_FAST_FORWARD = lookup.unreflectSetter(open(config.getDeclaredField("fastForward")));
+			NEW_SIMULATOR = lookup.unreflectConstructor(open(simulator.getDeclaredConstructor(program, int[].class, config, boolean.class)));
+			RUN = lookup.unreflect(open(simulator.getDeclaredMethod("run")));
+			CYCLES = lookup.unreflectGetter(open(result.getDeclaredField("cycles")));
+			INSTRUCTIONS = lookup.unreflectGetter(open(result.getDeclaredField("instructions")));
+			TIMELINE = lookup.unreflectGetter(open(result.getDeclaredField("timeline")));
+			NEW_RENDERER = lookup.unreflectConstructor(open(renderer.getDeclaredConstructor(Writer.class)));
+			RENDER = lookup.unreflect(open(renderer.getDeclaredMethod("render", List.class)));
+			FLUSH = lookup.unreflect(open(renderer.getDeclaredMethod("flush")));
+			
+			Field memory = open(main.getDeclaredField("DEFAULT_MEMORY"));
+			DEFAULT_MEMORY = (int[])memory.get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
+	private Pipeline() {
+	}
+	
+	private static <T extends AccessibleObject> T open(T member) {
+		member.setAccessible(true);
+		return member;
+	}
+	
+	// parse()
+	// Returns the Program decoded from the given lines by MulticyclePipeline.sortInstructions().
+	static Object parse(List<String> lines) throws Throwable {
+		return SORT_INSTRUCTIONS.invoke(lines);
+	}
+	
+	// config()
+	// Returns the default Config, with loop fast-forwarding on or off.
+	static Object config(boolean fastForward) throws Throwable {
+		Object config = NEW_CONFIG.invoke();
+		SET_FAST_FORWARD.invoke(config, fastForward);
+		return config;
+	}
+	
+	// run()
+	// Simulates a Program on the default memory and returns its Result.
+	static Object run(Object program, Object config, boolean recordTimeline) throws Throwable {
+		return RUN.invoke(NEW_SIMULATOR.invoke(program, DEFAULT_MEMORY, config, recordTimeline));
+	}
+	
+	static long cycles(Object result) throws Throwable {
+		return (long)CYCLES.invoke(result);
+	}
+	
+	static long instructions(Object result) throws Throwable {
+		return (long)INSTRUCTIONS.invoke(result);
+	}
+	
+	static List<?> timeline(Object result) throws Throwable {
+		return (List<?>)TIMELINE.invoke(result);
+	}
+	
+	// render()
+	// Writes a recorded timeline through a new TimelineRenderer.
+	static void render(List<?> timeline, Writer out) throws Throwable {
+		Object renderer = NEW_RENDERER.invoke(out);
+		RENDER.invoke(renderer, timeline);
+		FLUSH.invoke(renderer);
+	}
+}
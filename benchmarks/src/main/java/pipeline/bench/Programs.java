@@ -0,0 +1,74 @@
+package pipeline.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Programs
+// Generates the source lines of benchmark programs. Every program only touches addresses 0-18, the size of the default memory.
+public final class Programs {
+	// mix
+	// The instruction mix of a straight-line program: the given instruction repeated, with a load between every few so the
+	// FP and integer units see realistic operand traffic.
+	public enum mix {
+		INT("ADD $%d, $%d, $%d"),
+		ADD_D("ADD.D F%d, F%d, F%d"),
+		MUL_D("MUL.D F%d, F%d, F%d"),
+		DIV_D("DIV.D F%d, F%d, F%d");
+		
+		final String format;
+		
+		mix(String format) {
+			this.format = format;
+		}
+	}
+	
+	private Programs() {
+	}
+	
+	// straightLine()
+	// Returns a program of the given number of instructions of one mix, without any branch.
+	static List<String> straightLine(mix m, int size) {
+		List<String> lines = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			if (i % 4 == 0)
+				lines.add(m == mix.INT ? "LW $"+(i % 8 + 1)+", "+(i % 19)+"($0)" : "L.D F"+(i % 8 + 1)+", "+(i % 19)+"($0)");
+			else
+				lines.add(String.format(m.format, i % 8 + 1, (i+1) % 8 + 1, (i+2) % 8 + 1));
+		}
+		return lines;
+	}
+	
+	// branchLoop()
+	// Returns a loop of the given number of iterations whose body is a short integer sequence with an inner branch taken every
+	// other iteration, so every iteration runs one of two paths.
+	static List<String> branchLoop(int iterations) {
+		List<String> lines = new ArrayList<String>();
+		lines.add("LI $1, 0");
+		lines.add("LI $2, "+iterations);
+		lines.add("LI $5, 0");
+		lines.add("Loop: ADDI $1, $1, 1");
+		lines.add("ADDI $3, $5, 1");
+		lines.add("SW $1, 0($0)");
+		lines.add("BEQ $5, $0, Skip");
+		lines.add("LI $3, 0");
+		lines.add("Skip: ADDI $5, $3, 0");
+		lines.add("BNE $1, $2, Loop");
+		return lines;
+	}
+	
+	// mixed()
+	// Returns a large program cycling through every instruction format and a label every 16 lines, for parsing.
+	static List<String> mixed(int size) {
+		String[] formats = {
+			"ADDI $%1$d, $%2$d, 5", "ADD $%1$d, $%2$d, $%3$d", "SUB $%1$d, $%2$d, $%3$d", "LI $%1$d, 42", "LW $%1$d, 4($%2$d)",
+			"SW $%1$d, 8($%2$d)", "L.D F%1$d, 3($%2$d)", "S.D F%1$d, 0($%2$d)", "ADD.D F%1$d, F%2$d, F%3$d", "SUB.D F%1$d, F%2$d, F%3$d",
+			"MUL.D F%1$d, F%2$d, F%3$d", "DIV.D F%1$d, F%2$d, F%3$d", "BEQ $%1$d, $%2$d, L%4$d", "BNE $%1$d, $%2$d, L%4$d", "J L%4$d"
+		};
+		List<String> lines = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			String line = String.format(formats[i % formats.length], i % 31 + 1, (i+7) % 31 + 1, (i+13) % 31 + 1, i / 16 * 16);
+			lines.add(i % 16 == 0 ? "L"+i+": "+line : line);
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,52 @@
+package pipeline.bench;
+
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// RenderBenchmark
+// Cost of recording a timeline while simulating, and of rendering a recorded one into a writer that discards its output, so
+// neither the console nor the disk is measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+	@Param({"INT", "DIV_D"})
+	Programs.mix mix;
+	
+	Object program;
+	Object config;
+	List<?> timeline;
+	
+	@Setup
+	public void simulate() throws Throwable {
+		program = Pipeline.parse(Programs.straightLine(mix, 2000));
+		config = Pipeline.config(false);
+		timeline = Pipeline.timeline(Pipeline.run(program, config, true));
+	}
+	
+	@Benchmark
+	public Object record() throws Throwable {
+		return Pipeline.run(program, config, true);
+	}
+	
+	@Benchmark
+	public void render() throws Throwable {
+		Pipeline.render(timeline, Writer.nullWriter());
+	}
+}
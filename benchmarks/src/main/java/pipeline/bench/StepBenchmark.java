@@ -0,0 +1,86 @@
+package pipeline.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// StepBenchmark
+// Throughput of the stepping loop, without recording the timeline. The "cycles" and "instructions" counters are the simulated
+// cycles and dynamic instructions per second, so a change to updateStage() or storeMem() shows up directly in them.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepBenchmark {
+	@State(Scope.Benchmark)
+	public static class StraightLine {
+		@Param({"INT", "ADD_D", "MUL_D", "DIV_D"})
+		Programs.mix mix;
+		
+		Object program;
+		Object config;
+		
+		@Setup
+		public void generate() throws Throwable {
+			program = Pipeline.parse(Programs.straightLine(mix, 10000));
+			config = Pipeline.config(false);
+		}
+	}
+	
+	@State(Scope.Benchmark)
+	public static class BranchLoop {
+		@Param({"false", "true"})
+		boolean fastForward;
+		
+		Object program;
+		Object config;
+		
+		@Setup
+		public void generate() throws Throwable {
+			program = Pipeline.parse(Programs.branchLoop(10000));
+			config = Pipeline.config(fastForward);
+		}
+	}
+	
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long cycles;
+		public long instructions;
+		
+		@Setup(Level.Iteration)
+		public void reset() {
+			cycles = 0;
+			instructions = 0;
+		}
+		
+		Object add(Object result) throws Throwable {
+			cycles += Pipeline.cycles(result);
+			instructions += Pipeline.instructions(result);
+			return result;
+		}
+	}
+	
+	@Benchmark
+	public Object straightLine(StraightLine state, Counters counters) throws Throwable {
+		return counters.add(Pipeline.run(state.program, state.config, false));
+	}
+	
+	@Benchmark
+	public Object branchLoop(BranchLoop state, Counters counters) throws Throwable {
+		return counters.add(Pipeline.run(state.program, state.config, false));
+	}
+}